@@ -0,0 +1,488 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Depth first search over tile orientations that works on a single PackedGrid in place.
+// Each hypothesis is propagated and rolled back through the grid's undo trail on failure.
+// After every propagation the unsolved tiles are split into independent regions which are
+// searched one after the other, so a failure in one region never re-explores another.
+// The search keeps its own explicit stack of decisions in arrays sized to the grid, so its depth
+// is not limited by the thread's stack.
+// When a hypothesis fails, the decisions responsible are found by walking the trail back from the
+// contradiction. The search then jumps straight back to the most recent responsible decision and
+// remembers the combination as a nogood, which rules it out wherever it shows up again.
+// With a TranspositionTable attached, every region found to have no solution is remembered by its
+// Regions key, and the same region showing up again is ruled out without searching it.
+public class BacktrackingSearch {
+    public static final int DEFAULT_NOGOOD_CAPACITY = 4096;
+    // boards at least this many columns wide are propagated at the root with BitPlanePropagator
+    private static final int BIT_PLANE_MIN_COLS = 64;
+    private static final int[] NO_CONFLICTS = new int[0];
+
+    private final PackedGrid mGrid;
+    private final Propagator mPropagator;
+    private final Regions mRegions;
+    private final VariableOrdering mVariableOrdering;
+    private final ValueOrdering mValueOrdering;
+    private long mNodesExplored = 0;
+    private long mBackjumps = 0;
+    private long mTranspositionHits = 0;
+    // nogoods which have fired, regions searched since the last one are not known dead on their own
+    private long mNogoodHits = 0;
+    private TranspositionTable mDeadRegions = null;
+    private Inference mInference = null;
+    private Random mRandom = null;
+    // nodes each solve() may explore, and the mNodesExplored at which the current one gives up
+    private long mNodeLimit = Long.MAX_VALUE;
+    private long mGiveUpAt = Long.MAX_VALUE;
+    private boolean mIncomplete = false;
+    private CancellationToken mCancellationToken = new CancellationToken();
+
+    // Decision stack, every decision solves at least one tile so the grid size bounds its depth.
+    // The tile decided at each depth
+    private final int[] mFrameIndex;
+    // trail size before the tile was decided
+    private final int[] mFrameMark;
+    // orientations not yet tried, and the orientation trying started from
+    private final int[] mFrameUntried;
+    private final int[] mFrameStart;
+    // the region the tile belongs to
+    private final int[][] mFrameRegion;
+    // regions still to solve after this tile's region
+    private final PendingRegion[] mFramePending;
+    // sorted depths of the earlier decisions blamed for the orientations which failed here
+    private final int[][] mFrameConflicts;
+    // Regions key of the tile's region and mNogoodHits when the frame was opened
+    private final long[] mFrameKey;
+    private final long[] mFrameNogoodHits;
+
+    // mSeen[index] == mSeenGeneration marks tiles explain() still has to account for
+    private final int[] mSeen;
+    private int mSeenGeneration = 0;
+    private final int[] mDepthBuffer;
+    private final NogoodCache mNogoods = new NogoodCache(DEFAULT_NOGOOD_CAPACITY);
+
+    // Least recently used set of nogoods, keyed by the literal (index * 4 + orientation)
+    // of their most recent decision. A nogood is a set of literals which can't all hold at once.
+    private static class NogoodCache extends LinkedHashMap<Integer, int[]> {
+        private int mCapacity;
+
+        NogoodCache(int capacity) {
+            super(16, 0.75f, true);
+            mCapacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+            return size() > mCapacity;
+        }
+    }
+
+    // Linked list of regions waiting to be searched, shared between the frames that see it
+    private static class PendingRegion {
+        final int[] cells;
+        final long key;
+        final PendingRegion next;
+
+        PendingRegion(int[] cells, long key, PendingRegion next) {
+            this.cells = cells;
+            this.key = key;
+            this.next = next;
+        }
+    }
+
+    public BacktrackingSearch(PackedGrid grid, VariableOrdering variableOrdering, ValueOrdering valueOrdering) {
+        mGrid = grid;
+        mPropagator = new Propagator(grid);
+        mRegions = new Regions(grid);
+        mVariableOrdering = variableOrdering;
+        mValueOrdering = valueOrdering;
+        int maxDepth = grid.size();
+        mFrameIndex = new int[maxDepth];
+        mFrameMark = new int[maxDepth];
+        mFrameUntried = new int[maxDepth];
+        mFrameStart = new int[maxDepth];
+        mFrameRegion = new int[maxDepth][];
+        mFramePending = new PendingRegion[maxDepth];
+        mFrameConflicts = new int[maxDepth][];
+        mFrameKey = new long[maxDepth];
+        mFrameNogoodHits = new long[maxDepth];
+        mSeen = new int[grid.size()];
+        mDepthBuffer = new int[maxDepth];
+    }
+
+    public void setNogoodCapacity(int capacity) {
+        mNogoods.mCapacity = capacity;
+    }
+
+    // The search gives up, returning false from solve(), soon after the token is cancelled
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    // Remembers dead regions in table, which may be shared with other searches of the same puzzle
+    public void setTranspositionTable(TranspositionTable table) {
+        mDeadRegions = table;
+    }
+
+    // solve() applies the inference rules, which must be built on the same grid, before searching
+    public void setInference(Inference inference) {
+        mInference = inference;
+    }
+
+    // Shuffles the tiles the variable ordering chooses between, and often the orientation trying
+    // starts from, so that searches with different seeds make different choices when they're tied
+    public void setRandomSeed(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    // Each solve() gives up, returning false, after exploring this many nodes
+    public void setNodeLimit(long nodeLimit) {
+        mNodeLimit = nodeLimit;
+    }
+
+    // Whether the last solve() returned false because it was cancelled or ran out of nodes,
+    // rather than because there is no solution
+    public boolean isIncomplete() {
+        return mIncomplete;
+    }
+
+    public long getNodesExplored() {
+        return mNodesExplored;
+    }
+
+    // Times the search skipped over at least one decision while backtracking
+    public long getBackjumps() {
+        return mBackjumps;
+    }
+
+    public int getNogoodCount() {
+        return mNogoods.size();
+    }
+
+    // Regions ruled out by the transposition table
+    public long getTranspositionHits() {
+        return mTranspositionHits;
+    }
+
+    // Returns true with every tile solved, or false with the grid as it was before the call
+    public boolean solve() {
+        int startOfSearch = mGrid.getTrailSize();
+        startBudget();
+        if(propagateAll()
+                && (mInference == null || mInference.apply())
+                && search(push(mRegions.find(), null))) {
+            return true;
+        }
+        mGrid.undo(startOfSearch);
+        return false;
+    }
+
+    // Like solve() but only touches the given region, as returned by Regions
+    public boolean solve(int[] region) {
+        int startOfSearch = mGrid.getTrailSize();
+        startBudget();
+        for(int index : region) {
+            mPropagator.enqueue(index);
+        }
+        if(mPropagator.propagate() && search(push(mRegions.find(region, region.length), null))) {
+            return true;
+        }
+        mGrid.undo(startOfSearch);
+        return false;
+    }
+
+    private boolean propagateAll() {
+        if(mGrid.getCols() >= BIT_PLANE_MIN_COLS) {
+            return new BitPlanePropagator(mGrid).propagate();
+        }
+        mPropagator.enqueueAll();
+        return mPropagator.propagate();
+    }
+
+    private void startBudget() {
+        mIncomplete = false;
+        mGiveUpAt = mNodeLimit == Long.MAX_VALUE ? Long.MAX_VALUE : mNodesExplored + mNodeLimit;
+    }
+
+    // Puts regions in front of pending, keeping their order
+    private PendingRegion push(List<int[]> regions, PendingRegion pending) {
+        for(int i = regions.size() - 1; i >= 0; --i) {
+            int[] cells = regions.get(i);
+            if(mRandom != null) {
+                shuffle(cells);
+            }
+            long key = mDeadRegions != null ? mRegions.getKey(cells) : 0;
+            pending = new PendingRegion(cells, key, pending);
+        }
+        return pending;
+    }
+
+    // Returns the first of the count regions at the front of pending known to have no solution, or null
+    private PendingRegion findDeadRegion(PendingRegion pending, int count) {
+        if(mDeadRegions == null) {
+            return null;
+        }
+        for(int i = 0; i < count && pending != null; ++i, pending = pending.next) {
+            if(mDeadRegions.contains(pending.key)) {
+                return pending;
+            }
+        }
+        return null;
+    }
+
+    private boolean search(PendingRegion pending) {
+        if(findDeadRegion(pending, Integer.MAX_VALUE) != null) {
+            ++mTranspositionHits;
+            return false;
+        }
+        int depth = 0;
+        while(true) {
+            if(mCancellationToken.isCancelled() || mNodesExplored >= mGiveUpAt) {
+                mIncomplete = true;
+                return false;
+            }
+            // Find the next region which still needs a decision and open a frame for it
+            int index = -1;
+            while(pending != null) {
+                index = mVariableOrdering.select(mGrid, pending.cells, pending.cells.length);
+                if(index >= 0) {
+                    break;
+                }
+                pending = pending.next;
+            }
+            if(pending == null) {
+                return true;
+            }
+            mFrameIndex[depth] = index;
+            mFrameMark[depth] = mGrid.getTrailSize();
+            mFrameUntried[depth] = mGrid.getDomain(index);
+            mFrameStart[depth] = mRandom != null && mRandom.nextBoolean()
+                    ? mRandom.nextInt(4)
+                    : mValueOrdering.getStartOrientation(mGrid, index);
+            mFrameRegion[depth] = pending.cells;
+            mFramePending[depth] = pending.next;
+            mFrameConflicts[depth] = NO_CONFLICTS;
+            mFrameKey[depth] = pending.key;
+            mFrameNogoodHits[depth] = mNogoodHits;
+            ++depth;
+
+            // Try orientations of the top frame until one propagates, backtracking when they run out
+            pending = null;
+            while(pending == null) {
+                if(depth == 0) {
+                    return false;
+                }
+                int top = depth - 1;
+                int o = takeNextOrientation(top);
+                if(o < 0) {
+                    // Every orientation of this tile failed. Jump back to the latest decision
+                    // responsible, skipping the ones in between which made no difference.
+                    // The orientations propagation removed before the tile was decided failed too,
+                    // so the decisions which removed them are responsible as well.
+                    mGrid.undo(mFrameMark[top]);
+                    beginExplanation();
+                    mSeen[mFrameIndex[top]] = mSeenGeneration;
+                    int[] conflicts = union(mFrameConflicts[top], explain(top), top);
+                    if(mDeadRegions != null && mNogoodHits == mFrameNogoodHits[top]) {
+                        // The frame was the first decision in its region, so the whole region is dead
+                        mDeadRegions.add(mFrameKey[top]);
+                    }
+                    if(conflicts.length == 0) {
+                        return false;
+                    }
+                    learnNogood(conflicts);
+                    int target = conflicts[conflicts.length - 1];
+                    mFrameConflicts[target] = union(mFrameConflicts[target], conflicts, target);
+                    if(target < top - 1) {
+                        ++mBackjumps;
+                    }
+                    for(int d = target + 1; d < depth; ++d) {
+                        mFrameRegion[d] = null;
+                        mFramePending[d] = null;
+                        mFrameConflicts[d] = null;
+                    }
+                    depth = target + 1;
+                    continue;
+                }
+                ++mNodesExplored;
+                mGrid.undo(mFrameMark[top]);
+                int tile = mFrameIndex[top];
+                mGrid.setDomain(tile, 1 << o);
+                int[] conflict;
+                int[] nogood = findViolatedNogood(tile, o);
+                if(nogood != null) {
+                    ++mNogoodHits;
+                    beginExplanation();
+                    for(int literal : nogood) {
+                        mSeen[literal >> 2] = mSeenGeneration;
+                    }
+                    conflict = explain(top);
+                } else {
+                    mPropagator.enqueueNeighbours(tile);
+                    if(mPropagator.propagate()) {
+                        List<int[]> regions = mRegions.find(mFrameRegion[top], mFrameRegion[top].length);
+                        pending = push(regions, mFramePending[top]);
+                        PendingRegion dead = findDeadRegion(pending, regions.size());
+                        if(dead == null) {
+                            if(pending == null) {
+                                return true;
+                            }
+                            continue;
+                        }
+                        // A dead region is dead because of the solved tiles around it
+                        pending = null;
+                        ++mTranspositionHits;
+                        beginExplanation();
+                        for(int cell : dead.cells) {
+                            markSolvedNeighbours(cell);
+                        }
+                        conflict = explain(top);
+                    } else {
+                        // The tile which ran out of orientations did so because of its own domain
+                        // and those of its neighbours
+                        int wipedOut = mPropagator.getConflictIndex();
+                        beginExplanation();
+                        mSeen[wipedOut] = mSeenGeneration;
+                        markNeighbours(wipedOut);
+                        conflict = explain(top);
+                    }
+                }
+                if(conflict.length == 0 || conflict[conflict.length - 1] != top) {
+                    // This tile had nothing to do with it so its other orientations would fail too
+                    mFrameUntried[top] = 0;
+                }
+                mFrameConflicts[top] = union(mFrameConflicts[top], conflict, top);
+            }
+        }
+    }
+
+    private void shuffle(int[] cells) {
+        for(int i = cells.length - 1; i > 0; --i) {
+            int j = mRandom.nextInt(i + 1);
+            int cell = cells[i];
+            cells[i] = cells[j];
+            cells[j] = cell;
+        }
+    }
+
+    private void beginExplanation() {
+        if(++mSeenGeneration == 0) {
+            Arrays.fill(mSeen, 0);
+            mSeenGeneration = 1;
+        }
+    }
+
+    private void markNeighbours(int index) {
+        for(int direction : Direction.ALL) {
+            int n = mGrid.neighbour(index, direction);
+            if(n >= 0) {
+                mSeen[n] = mSeenGeneration;
+            }
+        }
+    }
+
+    private void markSolvedNeighbours(int index) {
+        for(int direction : Direction.ALL) {
+            int n = mGrid.neighbour(index, direction);
+            if(n >= 0 && mGrid.isSolved(n)) {
+                mSeen[n] = mSeenGeneration;
+            }
+        }
+    }
+
+    // Walks the trail back from the top of the decision stack, accounting for every change to a
+    // marked tile either by the decision which made it or by the neighbours which forced it.
+    // Returns the depths of the decisions reached, sorted.
+    private int[] explain(int top) {
+        int count = 0;
+        int d = top;
+        for(int position = mGrid.getTrailSize() - 2; position >= 0; position -= 2) {
+            while(d >= 0 && position < mFrameMark[d]) {
+                --d;
+            }
+            if(d < 0) {
+                // everything earlier follows from the puzzle alone
+                break;
+            }
+            int index = mGrid.getTrailIndex(position);
+            if(mSeen[index] != mSeenGeneration) {
+                continue;
+            }
+            if(position == mFrameMark[d]) {
+                // The decision itself, which fixed the tile regardless of its earlier domain
+                mDepthBuffer[count++] = d;
+                mSeen[index] = 0;
+            } else {
+                markNeighbours(index);
+            }
+        }
+        int[] depths = new int[count];
+        for(int i = 0; i < count; ++i) {
+            depths[i] = mDepthBuffer[count - 1 - i];
+        }
+        return depths;
+    }
+
+    // Merges the sorted depths of b, except exclude, into the sorted depths of a
+    private static int[] union(int[] a, int[] b, int exclude) {
+        int[] merged = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while(i < a.length || j < b.length) {
+            int next;
+            if(j == b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if(next != exclude && (count == 0 || merged[count - 1] != next)) {
+                merged[count++] = next;
+            }
+        }
+        return count == merged.length ? merged : Arrays.copyOf(merged, count);
+    }
+
+    private void learnNogood(int[] conflicts) {
+        int[] literals = new int[conflicts.length];
+        for(int i = 0; i < conflicts.length; ++i) {
+            int index = mFrameIndex[conflicts[i]];
+            literals[i] = index * 4 + mGrid.getOrientation(index);
+        }
+        mNogoods.put(literals[literals.length - 1], literals);
+    }
+
+    // Returns a remembered nogood which the decision of orientation o for tile completes, or null
+    private int[] findViolatedNogood(int tile, int o) {
+        int[] nogood = mNogoods.get(tile * 4 + o);
+        if(nogood == null) {
+            return null;
+        }
+        for(int literal : nogood) {
+            int index = literal >> 2;
+            if(!mGrid.isSolved(index) || mGrid.getOrientation(index) != (literal & 3)) {
+                return null;
+            }
+        }
+        return nogood;
+    }
+
+    // Removes and returns the next orientation to try at depth, or -1 when there are none left
+    private int takeNextOrientation(int depth) {
+        int untried = mFrameUntried[depth];
+        int start = mFrameStart[depth];
+        for(int i = 0; i < 4; ++i) {
+            int o = (start + i) & 3;
+            if((untried & (1 << o)) != 0) {
+                mFrameUntried[depth] = untried & ~(1 << o);
+                return o;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,102 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.Arrays;
+
+// Necessary conditions for a grid to have a solution, each checked in a single pass over the grid,
+// so a misrecognised board can be rejected before any search.
+// A tile connects on as many sides whichever way it is turned, and every open edge joins two tiles,
+// so the tiles joined by edges which may open, those where both tiles have an orientation
+// connecting across, must have an even number of connections between them.
+// Bounds on how many edges open within a region or across a line between two rows or columns
+// aren't checked: once every tile fits its neighbours, summing over the tiles on one side already
+// keeps their connections within the edges which may open and above those which must.
+public class BoardValidator {
+    public enum Violation {
+        // a tile has no orientation fitting the tiles next to it
+        TILE,
+        // the tiles joined by edges which may open have an odd number of connections between them
+        REGION,
+    }
+
+    private final PackedGrid mGrid;
+    private final int[] mQueue;
+    private final boolean[] mVisited;
+    private Violation mViolation = null;
+
+    public BoardValidator(PackedGrid grid) {
+        mGrid = grid;
+        mQueue = new int[grid.size()];
+        mVisited = new boolean[grid.size()];
+    }
+
+    // The condition the last validate() found broken, or null if it found none
+    public Violation getViolation() {
+        return mViolation;
+    }
+
+    // Returns the tiles, as indices col * rows + row, where the first broken condition was found,
+    // or null when the grid passes every check. Passing doesn't mean the grid has a solution.
+    public int[] validate() {
+        mViolation = null;
+        int[] cells = checkTiles();
+        if(cells == null) {
+            cells = checkRegions();
+        }
+        return cells;
+    }
+
+    private static int getDegree(TileType type) {
+        return Integer.bitCount(type.getConnectionDirections());
+    }
+
+    private boolean mayOpen(int index, int direction) {
+        int n = mGrid.neighbour(index, direction);
+        return n >= 0
+                && (mGrid.getMayConnect(index) & direction) != 0
+                && (mGrid.getMayConnect(n) & Direction.opposite(direction)) != 0;
+    }
+
+    private int[] checkTiles() {
+        for(int index = 0; index < mGrid.size(); ++index) {
+            if(mGrid.getSupportedOrientations(index) == 0) {
+                mViolation = Violation.TILE;
+                return new int[]{index};
+            }
+        }
+        return null;
+    }
+
+    private int[] checkRegions() {
+        Arrays.fill(mVisited, false);
+        for(int start = 0; start < mGrid.size(); ++start) {
+            if(mVisited[start]) {
+                continue;
+            }
+            mVisited[start] = true;
+            mQueue[0] = start;
+            int size = 1;
+            int connections = 0;
+            for(int head = 0; head < size; ++head) {
+                int index = mQueue[head];
+                connections += getDegree(mGrid.getType(index));
+                for(int direction : Direction.ALL) {
+                    if(!mayOpen(index, direction)) {
+                        continue;
+                    }
+                    int n = mGrid.neighbour(index, direction);
+                    if(!mVisited[n]) {
+                        mVisited[n] = true;
+                        mQueue[size++] = n;
+                    }
+                }
+            }
+            if(connections % 2 != 0) {
+                mViolation = Violation.REGION;
+                int[] region = Arrays.copyOf(mQueue, size);
+                Arrays.sort(region);
+                return region;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,47 @@
+package efokschaner.infinityloopsolver;
+
+// Cooperative cancellation flag polled by the searches.
+// Cancelling a token also cancels every token created from it with newChild().
+// A token with a deadline counts as cancelled once the deadline has passed.
+public class CancellationToken {
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final CancellationToken mParent;
+    private volatile boolean mCancelled = false;
+    // System.nanoTime() at which the token cancels itself
+    private volatile long mDeadline = NO_DEADLINE;
+
+    public CancellationToken() {
+        this(null);
+    }
+
+    private CancellationToken(CancellationToken parent) {
+        mParent = parent;
+    }
+
+    public CancellationToken newChild() {
+        return new CancellationToken(this);
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public void cancelAfter(long millis) {
+        mDeadline = System.nanoTime() + millis * 1000000;
+    }
+
+    public boolean isCancelled() {
+        for(CancellationToken t = this; t != null; t = t.mParent) {
+            if(t.mCancelled) {
+                return true;
+            }
+            long deadline = t.mDeadline;
+            if(deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0) {
+                t.mCancelled = true;
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,158 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Solves a grid whose tiles may have been misrecognised, treating each tile's type as one more
+// choice among the candidates recognition found for it.
+// The tiles as recognised are tried first. After that, sets of substitutions, each replacing a
+// tile with one of its other candidates, are tried most likely first: by how much certainty
+// they give up against the candidates recognised. Each set is checked with BoardValidator before
+// the engine searches it, which rejects most wrong guesses without any search.
+public class CandidateSearch {
+    // substitutions tried together at most, more than this many misrecognised tiles are better
+    // fixed by recognising the board again
+    public static final int MAX_SUBSTITUTIONS = 2;
+    // sets of substitutions tried at most
+    public static final int MAX_ATTEMPTS = 1024;
+
+    // A tile and one of its candidates other than the recognised one
+    private static class Substitution {
+        final int index;
+        final TileCandidate candidate;
+        // certainty given up against the recognised candidate
+        final double cost;
+
+        Substitution(int index, TileCandidate candidate, double cost) {
+            this.index = index;
+            this.candidate = candidate;
+            this.cost = cost;
+        }
+    }
+
+    // Positions in mSubstitutions of a set of substitutions, in increasing order
+    private static class Attempt {
+        final int[] positions;
+        final double cost;
+
+        Attempt(int[] positions, double cost) {
+            this.positions = positions;
+            this.cost = cost;
+        }
+    }
+
+    private final PackedGrid mGrid;
+    private final SolverEngine mEngine;
+    // cheapest first
+    private final List<Substitution> mSubstitutions = new ArrayList<>();
+    private int[] mSubstituted = new int[0];
+    private int mAttempts = 0;
+
+    // candidates holds for each tile, by index, the candidates recognised for it, most certain
+    // first, the first of which is the tile in grid. It may be null for tiles with only one.
+    public CandidateSearch(PackedGrid grid, TileCandidate[][] candidates, SolverEngine engine) {
+        mGrid = grid;
+        mEngine = engine;
+        for(int index = 0; index < grid.size(); ++index) {
+            if(candidates[index] == null) {
+                continue;
+            }
+            for(int i = 1; i < candidates[index].length; ++i) {
+                mSubstitutions.add(new Substitution(
+                        index,
+                        candidates[index][i],
+                        candidates[index][0].certainty - candidates[index][i].certainty));
+            }
+        }
+        Collections.sort(mSubstitutions, new Comparator<Substitution>() {
+            @Override
+            public int compare(Substitution a, Substitution b) {
+                return Double.compare(a.cost, b.cost);
+            }
+        });
+    }
+
+    // Tiles, by index, whose type was replaced in the last solution found
+    public int[] getSubstitutedCells() {
+        return mSubstituted;
+    }
+
+    // Sets of tiles tried so far, the tiles as recognised included
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    // Returns true with every tile solved, some possibly replaced by other candidates, or false
+    // with the grid unchanged. Gives up, returning false, soon after cancellationToken is cancelled.
+    public boolean solve(CancellationToken cancellationToken) {
+        if(tryTiles(new int[0], cancellationToken)) {
+            return true;
+        }
+        if(mSubstitutions.isEmpty()) {
+            return false;
+        }
+        // Every set is reached once from a cheaper one, by moving its last substitution to the
+        // next cheapest or by adding the next cheapest after it, so sets come out cheapest first
+        PriorityQueue<Attempt> attempts = new PriorityQueue<>(64, new Comparator<Attempt>() {
+            @Override
+            public int compare(Attempt a, Attempt b) {
+                return Double.compare(a.cost, b.cost);
+            }
+        });
+        attempts.add(new Attempt(new int[]{0}, mSubstitutions.get(0).cost));
+        while(!attempts.isEmpty() && mAttempts < MAX_ATTEMPTS && !cancellationToken.isCancelled()) {
+            Attempt attempt = attempts.poll();
+            int[] positions = attempt.positions;
+            int last = positions[positions.length - 1];
+            if(last + 1 < mSubstitutions.size()) {
+                int[] moved = positions.clone();
+                moved[moved.length - 1] = last + 1;
+                attempts.add(new Attempt(
+                        moved,
+                        attempt.cost - mSubstitutions.get(last).cost + mSubstitutions.get(last + 1).cost));
+                if(positions.length < MAX_SUBSTITUTIONS) {
+                    int[] extended = Arrays.copyOf(positions, positions.length + 1);
+                    extended[positions.length] = last + 1;
+                    attempts.add(new Attempt(extended, attempt.cost + mSubstitutions.get(last + 1).cost));
+                }
+            }
+            if(tryTiles(positions, cancellationToken)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Substitutes the tiles at positions and solves, leaving the grid as it was on failure
+    private boolean tryTiles(int[] positions, CancellationToken cancellationToken) {
+        int[] cells = new int[positions.length];
+        for(int i = 0; i < positions.length; ++i) {
+            cells[i] = mSubstitutions.get(positions[i]).index;
+            for(int j = 0; j < i; ++j) {
+                // two candidates for the same tile
+                if(cells[j] == cells[i]) {
+                    return false;
+                }
+            }
+        }
+        ++mAttempts;
+        int mark = mGrid.getTrailSize();
+        for(int position : positions) {
+            Substitution substitution = mSubstitutions.get(position);
+            mGrid.setTile(
+                    substitution.index,
+                    substitution.candidate.type,
+                    substitution.candidate.orientation.getValue());
+        }
+        if(new BoardValidator(mGrid).validate() == null && mEngine.solve(mGrid, cancellationToken)) {
+            mSubstituted = cells;
+            return true;
+        }
+        mGrid.undo(mark);
+        return false;
+    }
+}
@@ -0,0 +1,454 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A small conflict-driven clause learning SAT solver.
+// Variables are numbered from 1 and literals are written DIMACS style, v for the variable
+// being true and -v for it being false. Uses two watched literals for unit propagation,
+// first-UIP clause learning with non-chronological backjumping, VSIDS decision ordering with
+// phase saving and Luby restarts.
+public class CdclSolver {
+    private static final int RESTART_BASE_CONFLICTS = 100;
+    private static final double ACTIVITY_DECAY = 0.95;
+
+    // Internally literal 2 * var + 1 means var is false, var counting from 0
+    private static int toInternal(int literal) {
+        return literal > 0 ? 2 * (literal - 1) : 2 * (-literal - 1) + 1;
+    }
+
+    private static int not(int lit) {
+        return lit ^ 1;
+    }
+
+    private static int var(int lit) {
+        return lit >> 1;
+    }
+
+    private final int mNumVars;
+    private final List<int[]> mClauses = new ArrayList<>();
+    // clauses watching each literal, visited when that literal becomes false
+    private final IntList[] mWatches;
+    // 1 true, -1 false, 0 unassigned
+    private final byte[] mAssigns;
+    private final int[] mLevel;
+    // clause which implied each variable, or -1 for decisions
+    private final int[] mReason;
+    private final boolean[] mPolarity;
+    private final boolean[] mSeen;
+    private final int[] mTrail;
+    private int mTrailSize = 0;
+    private int mPropagateHead = 0;
+    private final IntList mTrailLimits = new IntList();
+    private final double[] mActivity;
+    private double mActivityIncrement = 1;
+    private final VarHeap mOrder;
+    // set once a conflict is found at decision level zero
+    private boolean mUnsatisfiable = false;
+    private long mConflicts = 0;
+    private CancellationToken mCancellationToken = new CancellationToken();
+
+    public CdclSolver(int numVars) {
+        mNumVars = numVars;
+        mWatches = new IntList[2 * numVars];
+        for(int i = 0; i < mWatches.length; ++i) {
+            mWatches[i] = new IntList();
+        }
+        mAssigns = new byte[numVars];
+        mLevel = new int[numVars];
+        mReason = new int[numVars];
+        mPolarity = new boolean[numVars];
+        mSeen = new boolean[numVars];
+        mTrail = new int[numVars];
+        mActivity = new double[numVars];
+        mOrder = new VarHeap();
+        for(int v = 0; v < numVars; ++v) {
+            mOrder.insert(v);
+        }
+    }
+
+    // solve() gives up, returning false, soon after the token is cancelled
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    public long getConflicts() {
+        return mConflicts;
+    }
+
+    // 1 true, -1 false, 0 unassigned, for a literal in internal form
+    private int value(int lit) {
+        int v = mAssigns[var(lit)];
+        return (lit & 1) == 0 ? v : -v;
+    }
+
+    private int decisionLevel() {
+        return mTrailLimits.size();
+    }
+
+    // Must be called before solve(), at decision level zero
+    public void addClause(int... literals) {
+        if(mUnsatisfiable) {
+            return;
+        }
+        int[] clause = new int[literals.length];
+        int size = 0;
+        for(int literal : literals) {
+            int lit = toInternal(literal);
+            int value = value(lit);
+            if(value > 0) {
+                // already satisfied
+                return;
+            }
+            boolean duplicate = false;
+            for(int i = 0; i < size; ++i) {
+                if(clause[i] == lit) {
+                    duplicate = true;
+                } else if(clause[i] == not(lit)) {
+                    // tautology
+                    return;
+                }
+            }
+            if(value == 0 && !duplicate) {
+                clause[size++] = lit;
+            }
+        }
+        if(size == 0) {
+            mUnsatisfiable = true;
+        } else if(size == 1) {
+            enqueue(clause[0], -1);
+            mUnsatisfiable = propagate() >= 0;
+        } else {
+            attach(Arrays.copyOf(clause, size));
+        }
+    }
+
+    private int attach(int[] clause) {
+        int index = mClauses.size();
+        mClauses.add(clause);
+        mWatches[clause[0]].add(index);
+        mWatches[clause[1]].add(index);
+        return index;
+    }
+
+    private void enqueue(int lit, int reason) {
+        int v = var(lit);
+        mAssigns[v] = (byte) ((lit & 1) == 0 ? 1 : -1);
+        mLevel[v] = decisionLevel();
+        mReason[v] = reason;
+        mTrail[mTrailSize++] = lit;
+    }
+
+    // Returns the index of a conflicting clause, or -1
+    private int propagate() {
+        while(mPropagateHead < mTrailSize) {
+            int falseLit = not(mTrail[mPropagateHead++]);
+            IntList watches = mWatches[falseLit];
+            int i = 0;
+            int j = 0;
+            while(i < watches.size()) {
+                int clauseIndex = watches.get(i++);
+                int[] clause = mClauses.get(clauseIndex);
+                if(clause[0] == falseLit) {
+                    clause[0] = clause[1];
+                    clause[1] = falseLit;
+                }
+                if(value(clause[0]) > 0) {
+                    watches.set(j++, clauseIndex);
+                    continue;
+                }
+                boolean foundWatch = false;
+                for(int k = 2; k < clause.length; ++k) {
+                    if(value(clause[k]) >= 0) {
+                        clause[1] = clause[k];
+                        clause[k] = falseLit;
+                        mWatches[clause[1]].add(clauseIndex);
+                        foundWatch = true;
+                        break;
+                    }
+                }
+                if(foundWatch) {
+                    continue;
+                }
+                watches.set(j++, clauseIndex);
+                if(value(clause[0]) < 0) {
+                    while(i < watches.size()) {
+                        watches.set(j++, watches.get(i++));
+                    }
+                    watches.shrink(j);
+                    mPropagateHead = mTrailSize;
+                    return clauseIndex;
+                }
+                enqueue(clause[0], clauseIndex);
+            }
+            watches.shrink(j);
+        }
+        return -1;
+    }
+
+    // First-UIP conflict analysis. Returns the learnt clause with the asserting literal first
+    // and a literal of the backjump level second.
+    private int[] analyze(int conflict) {
+        IntList learnt = new IntList();
+        learnt.add(0);
+        int pathCount = 0;
+        int lit = -1;
+        int index = mTrailSize - 1;
+        do {
+            int[] clause = mClauses.get(conflict);
+            for(int k = lit == -1 ? 0 : 1; k < clause.length; ++k) {
+                int q = clause[k];
+                int v = var(q);
+                if(!mSeen[v] && mLevel[v] > 0) {
+                    bumpActivity(v);
+                    mSeen[v] = true;
+                    if(mLevel[v] >= decisionLevel()) {
+                        ++pathCount;
+                    } else {
+                        learnt.add(q);
+                    }
+                }
+            }
+            while(!mSeen[var(mTrail[index--])]) {
+                // skip literals not involved in the conflict
+            }
+            lit = mTrail[index + 1];
+            conflict = mReason[var(lit)];
+            mSeen[var(lit)] = false;
+            --pathCount;
+        } while(pathCount > 0);
+        learnt.set(0, not(lit));
+
+        int[] clause = learnt.toArray();
+        for(int k = 1; k < clause.length; ++k) {
+            mSeen[var(clause[k])] = false;
+        }
+        // the literal assigned at the highest remaining level becomes the second watch
+        int maxIndex = 1;
+        for(int k = 2; k < clause.length; ++k) {
+            if(mLevel[var(clause[k])] > mLevel[var(clause[maxIndex])]) {
+                maxIndex = k;
+            }
+        }
+        if(clause.length > 1) {
+            int swap = clause[1];
+            clause[1] = clause[maxIndex];
+            clause[maxIndex] = swap;
+        }
+        return clause;
+    }
+
+    private void cancelUntil(int level) {
+        if(decisionLevel() <= level) {
+            return;
+        }
+        int limit = mTrailLimits.get(level);
+        for(int i = mTrailSize - 1; i >= limit; --i) {
+            int v = var(mTrail[i]);
+            mPolarity[v] = mAssigns[v] > 0;
+            mAssigns[v] = 0;
+            mReason[v] = -1;
+            if(!mOrder.contains(v)) {
+                mOrder.insert(v);
+            }
+        }
+        mTrailSize = limit;
+        mPropagateHead = limit;
+        mTrailLimits.shrink(level);
+    }
+
+    private void bumpActivity(int v) {
+        mActivity[v] += mActivityIncrement;
+        if(mActivity[v] > 1e100) {
+            for(int i = 0; i < mNumVars; ++i) {
+                mActivity[i] *= 1e-100;
+            }
+            mActivityIncrement *= 1e-100;
+        }
+        if(mOrder.contains(v)) {
+            mOrder.increased(v);
+        }
+    }
+
+    // 1, 1, 2, 1, 1, 2, 4, 1, 1, 2, 1, 1, 2, 4, 8, ...
+    static long luby(int i) {
+        int size = 1;
+        int sequence = 0;
+        while(size < i + 1) {
+            ++sequence;
+            size = 2 * size + 1;
+        }
+        while(size - 1 != i) {
+            size = (size - 1) >> 1;
+            --sequence;
+            i = i % size;
+        }
+        return 1L << sequence;
+    }
+
+    // Returns true when every clause can be satisfied, after which getValue() reads the model
+    public boolean solve() {
+        if(mUnsatisfiable) {
+            return false;
+        }
+        int restarts = 0;
+        long conflictsUntilRestart = RESTART_BASE_CONFLICTS * luby(restarts);
+        while(true) {
+            int conflict = propagate();
+            if(conflict >= 0) {
+                ++mConflicts;
+                if(decisionLevel() == 0) {
+                    mUnsatisfiable = true;
+                    return false;
+                }
+                int[] learnt = analyze(conflict);
+                cancelUntil(learnt.length > 1 ? mLevel[var(learnt[1])] : 0);
+                if(learnt.length == 1) {
+                    enqueue(learnt[0], -1);
+                } else {
+                    enqueue(learnt[0], attach(learnt));
+                }
+                mActivityIncrement /= ACTIVITY_DECAY;
+                if(--conflictsUntilRestart <= 0) {
+                    ++restarts;
+                    conflictsUntilRestart = RESTART_BASE_CONFLICTS * luby(restarts);
+                    cancelUntil(0);
+                }
+            } else {
+                if(mCancellationToken.isCancelled()) {
+                    cancelUntil(0);
+                    return false;
+                }
+                int next = -1;
+                while(!mOrder.isEmpty()) {
+                    int v = mOrder.removeMax();
+                    if(mAssigns[v] == 0) {
+                        next = v;
+                        break;
+                    }
+                }
+                if(next < 0) {
+                    return true;
+                }
+                mTrailLimits.add(mTrailSize);
+                enqueue(2 * next + (mPolarity[next] ? 0 : 1), -1);
+            }
+        }
+    }
+
+    public boolean getValue(int variable) {
+        return mAssigns[variable - 1] > 0;
+    }
+
+    // Growable list of ints
+    private static class IntList {
+        private int[] mData = new int[4];
+        private int mSize = 0;
+
+        void add(int value) {
+            if(mSize == mData.length) {
+                mData = Arrays.copyOf(mData, mSize * 2);
+            }
+            mData[mSize++] = value;
+        }
+
+        int get(int i) {
+            return mData[i];
+        }
+
+        void set(int i, int value) {
+            mData[i] = value;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        void shrink(int size) {
+            mSize = size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mData, mSize);
+        }
+    }
+
+    // Binary max-heap of variables ordered by activity
+    private class VarHeap {
+        private final int[] mHeap = new int[mNumVars];
+        // position of each variable in mHeap, or -1
+        private final int[] mIndices = new int[mNumVars];
+        private int mSize = 0;
+
+        VarHeap() {
+            Arrays.fill(mIndices, -1);
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        boolean contains(int v) {
+            return mIndices[v] >= 0;
+        }
+
+        void insert(int v) {
+            mIndices[v] = mSize;
+            mHeap[mSize++] = v;
+            siftUp(mIndices[v]);
+        }
+
+        void increased(int v) {
+            siftUp(mIndices[v]);
+        }
+
+        int removeMax() {
+            int top = mHeap[0];
+            mIndices[top] = -1;
+            --mSize;
+            if(mSize > 0) {
+                mHeap[0] = mHeap[mSize];
+                mIndices[mHeap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private void siftUp(int i) {
+            int v = mHeap[i];
+            while(i > 0) {
+                int parent = (i - 1) >> 1;
+                if(mActivity[mHeap[parent]] >= mActivity[v]) {
+                    break;
+                }
+                mHeap[i] = mHeap[parent];
+                mIndices[mHeap[i]] = i;
+                i = parent;
+            }
+            mHeap[i] = v;
+            mIndices[v] = i;
+        }
+
+        private void siftDown(int i) {
+            int v = mHeap[i];
+            while(true) {
+                int child = 2 * i + 1;
+                if(child >= mSize) {
+                    break;
+                }
+                if(child + 1 < mSize && mActivity[mHeap[child + 1]] > mActivity[mHeap[child]]) {
+                    ++child;
+                }
+                if(mActivity[mHeap[child]] <= mActivity[v]) {
+                    break;
+                }
+                mHeap[i] = mHeap[child];
+                mIndices[mHeap[i]] = i;
+                i = child;
+            }
+            mHeap[i] = v;
+            mIndices[v] = i;
+        }
+    }
+}
@@ -1,11 +0,0 @@
-package efokschaner.infinityloopsolver;
-
-public class ClickAction {
-    public int xpos;
-    public int ypos;
-
-    public ClickAction(int xpos, int ypos) {
-        this.xpos = xpos;
-        this.ypos = ypos;
-    }
-}
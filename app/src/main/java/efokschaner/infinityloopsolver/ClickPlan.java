@@ -0,0 +1,50 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.Arrays;
+
+// The taps turning a grid from how it was recognised to a solution, as one int per tile to turn:
+// the tile's index, col * rows + row, shifted left by two above the number of clockwise taps.
+// Nothing about the screen is kept here, see GridInfo for where each tile is tapped.
+public class ClickPlan {
+    private final int mRows;
+    private final int[] mSteps;
+
+    ClickPlan(int rows, int[] steps) {
+        mRows = rows;
+        mSteps = steps;
+    }
+
+    public static int encode(int index, int taps) {
+        return (index << 2) | taps;
+    }
+
+    // Tiles to turn
+    public int size() {
+        return mSteps.length;
+    }
+
+    public int getCol(int step) {
+        return (mSteps[step] >>> 2) / mRows;
+    }
+
+    public int getRow(int step) {
+        return (mSteps[step] >>> 2) % mRows;
+    }
+
+    public int getTaps(int step) {
+        return mSteps[step] & 3;
+    }
+
+    public int getTapCount() {
+        int taps = 0;
+        for(int step : mSteps) {
+            taps += step & 3;
+        }
+        return taps;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(mSteps);
+    }
+}
@@ -11,7 +11,16 @@ public class Direction {
     public static final int[] ALL = {UP, RIGHT, DOWN, LEFT};
 
     public static int applyOrientation(TileOrientation o, int directions) {
-        int rotated = directions << o.getValue();
-        return (rotated | (rotated << 4)) >> 4;
+        return applyOrientation(o.getValue(), directions);
+    }
+
+    // Rotates a direction mask clockwise by the given number of quarter turns
+    public static int applyOrientation(int orientation, int directions) {
+        int rotated = directions << orientation;
+        return (rotated | (rotated >> 4)) & 0xF;
+    }
+
+    public static int opposite(int directions) {
+        return applyOrientation(2, directions);
     }
 }
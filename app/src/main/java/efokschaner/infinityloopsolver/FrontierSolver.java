@@ -0,0 +1,140 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.Arrays;
+
+// Transfer-matrix solver for grids with a narrow dimension.
+// Tiles are swept line by line along the long dimension of the grid. The frontier state holds,
+// for every position across the grid, whether the tile before it in the previous line connects
+// forward into it, plus whether the previous tile in the current line connects sideways into it.
+// Reachable states are tracked per tile, so the work is linear in the number of tiles times
+// 2^(width + 1) no matter how the tiles are mixed.
+public class FrontierSolver {
+    // Narrowest dimension above which the frontier gets too large to be worth sweeping
+    public static final int MAX_WIDTH = 8;
+
+    private final PackedGrid mGrid;
+    // true when sweeping rows top to bottom, false when sweeping columns left to right
+    private final boolean mSweepRows;
+    private final int mWidth;
+    private final int mLines;
+    private CancellationToken mCancellationToken = new CancellationToken();
+
+    public FrontierSolver(PackedGrid grid) {
+        mGrid = grid;
+        mSweepRows = grid.getCols() <= grid.getRows();
+        mWidth = mSweepRows ? grid.getCols() : grid.getRows();
+        mLines = mSweepRows ? grid.getRows() : grid.getCols();
+    }
+
+    // solve() gives up, returning false, soon after the token is cancelled
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    public static boolean isApplicable(PackedGrid grid) {
+        return Math.min(grid.getCols(), grid.getRows()) <= MAX_WIDTH;
+    }
+
+    private int getCellIndex(int line, int pos) {
+        return mSweepRows ? mGrid.index(pos, line) : mGrid.index(line, pos);
+    }
+
+    // Returns true with every tile solved, or false with the grid as it was before the call
+    public boolean solve() {
+        int startOfSearch = mGrid.getTrailSize();
+        // Propagating first only shrinks the domains the sweep has to consider
+        Propagator propagator = new Propagator(mGrid);
+        propagator.enqueueAll();
+        if(!propagator.propagate()) {
+            mGrid.undo(startOfSearch);
+            return false;
+        }
+
+        final int prevLine = mSweepRows ? Direction.UP : Direction.LEFT;
+        final int nextLine = mSweepRows ? Direction.DOWN : Direction.RIGHT;
+        final int prevPos = mSweepRows ? Direction.LEFT : Direction.UP;
+        final int nextPos = mSweepRows ? Direction.RIGHT : Direction.DOWN;
+        final int carryBit = 1 << mWidth;
+        final int states = carryBit << 1;
+        final int cells = mWidth * mLines;
+
+        // choices[step * states + state] is 1 + the orientation of the tile at step which first
+        // reached state, or 0 when state is unreachable after step
+        byte[] choices = new byte[cells * states];
+        boolean[] current = new boolean[states];
+        boolean[] next = new boolean[states];
+        current[0] = true;
+        for(int step = 0; step < cells; ++step) {
+            if(mCancellationToken.isCancelled()) {
+                mGrid.undo(startOfSearch);
+                return false;
+            }
+            int line = step / mWidth;
+            int pos = step % mWidth;
+            int index = getCellIndex(line, pos);
+            TileType type = mGrid.getType(index);
+            int domain = mGrid.getDomain(index);
+            int posBit = 1 << pos;
+            boolean lastPos = pos == mWidth - 1;
+            boolean lastLine = line == mLines - 1;
+            boolean anyReachable = false;
+            for(int state = 0; state < states; ++state) {
+                if(!current[state]) {
+                    continue;
+                }
+                boolean in = (state & posBit) != 0;
+                boolean carry = (state & carryBit) != 0;
+                for(int o = 0; o < 4; ++o) {
+                    if((domain & (1 << o)) == 0) {
+                        continue;
+                    }
+                    int connections = PackedGrid.getConnections(type, o);
+                    if(((connections & prevLine) != 0) != in || ((connections & prevPos) != 0) != carry) {
+                        continue;
+                    }
+                    boolean forward = (connections & nextLine) != 0;
+                    boolean sideways = (connections & nextPos) != 0;
+                    if((forward && lastLine) || (sideways && lastPos)) {
+                        continue;
+                    }
+                    int nextState = (state & ~posBit & ~carryBit)
+                            | (forward ? posBit : 0)
+                            | (sideways ? carryBit : 0);
+                    if(!next[nextState]) {
+                        next[nextState] = true;
+                        choices[step * states + nextState] = (byte) (o + 1);
+                        anyReachable = true;
+                    }
+                }
+            }
+            if(!anyReachable) {
+                mGrid.undo(startOfSearch);
+                return false;
+            }
+            boolean[] swap = current;
+            current = next;
+            next = swap;
+            Arrays.fill(next, false);
+        }
+        if(!current[0]) {
+            mGrid.undo(startOfSearch);
+            return false;
+        }
+
+        // Walk back from the empty final frontier recovering the orientation used at each step
+        int state = 0;
+        for(int step = cells - 1; step >= 0; --step) {
+            int pos = step % mWidth;
+            int index = getCellIndex(step / mWidth, pos);
+            int o = choices[step * states + state] - 1;
+            int connections = PackedGrid.getConnections(mGrid.getType(index), o);
+            if(!mGrid.isSolved(index)) {
+                mGrid.setDomain(index, 1 << o);
+            }
+            state = (state & ~(1 << pos) & ~carryBit)
+                    | ((connections & prevLine) != 0 ? 1 << pos : 0)
+                    | ((connections & prevPos) != 0 ? carryBit : 0);
+        }
+        return true;
+    }
+}
@@ -1,164 +1,395 @@
 package efokschaner.infinityloopsolver;
 
-import com.rits.cloning.Cloner;
-
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
 
 public class GameState {
     private static final String TAG = ImageProcessor.class.getSimpleName();
-    private static final Cloner mCloner = new Cloner();
-    private int mCols;
-    private int mRows;
-
-    private void doRotateTile(int col, int row, TileOrientation targetOrientation) {
-        TileState t = mGridState[col][row];
-        int clickPosX = (int) (mGridInfo.originX + mGridInfo.colWidth * (col + 0.5));
-        int clickPosY = (int) (mGridInfo.originY + mGridInfo.rowHeight * (row + 0.5));
-        while(!t.orientation.equals(targetOrientation)) {
-            t.orientation = t.orientation.rotate();
-            mActionsTaken.add(new ClickAction(clickPosX, clickPosY));
-        }
-    }
-
-    private static boolean isValidOrientation(
-            TileType type,
-            TileOrientation candidate,
-            TileState up,
-            TileState right,
-            TileState down,
-            TileState left) {
-        int directionsNeeded = Direction.applyOrientation(candidate, type.getConnectionDirections());
-        {
-            int upCanConnectDown = up.canConnect(Direction.DOWN);
-            if (upCanConnectDown == TileState.CANNOT_CONNECT)
-                if ((Direction.UP & directionsNeeded) != 0)
-                    return false;
+    // getSolution(previous, ...) solves from scratch when more than one in this many tiles changed type
+    private static final int MAX_REPAIR_RATIO = 8;
 
-            if (upCanConnectDown == TileState.MUST_CONNECT)
-                if ((Direction.UP & directionsNeeded) == 0)
-                    return false;
+    // Taps each tile forward from the orientation it was recognised in to its current orientation,
+    // or to whichever orientation that looks the same is fewer taps away
+    private ClickPlan getPlan() {
+        return getPlan(null);
+    }
+
+    // With published, only plans the solved tiles not published yet, and marks them published
+    private ClickPlan getPlan(boolean[] published) {
+        return getPlan(mGrid, published);
+    }
+
+    private static ClickPlan getPlan(PackedGrid grid, boolean[] published) {
+        int[] steps = new int[grid.size()];
+        int count = 0;
+        for(int index = 0; index < grid.size(); ++index) {
+            if(published != null) {
+                if(published[index] || !grid.isSolved(index)) {
+                    continue;
+                }
+                published[index] = true;
+            }
+            int taps = grid.getTaps(index);
+            if(taps != 0) {
+                steps[count++] = ClickPlan.encode(index, taps);
+            }
         }
-        {
-            int rightCanConnectLeft = right.canConnect(Direction.LEFT);
-            if (rightCanConnectLeft == TileState.CANNOT_CONNECT)
-                if ((Direction.RIGHT & directionsNeeded) != 0)
-                    return false;
+        return new ClickPlan(grid.getRows(), Arrays.copyOf(steps, count));
+    }
 
-            if (rightCanConnectLeft == TileState.MUST_CONNECT)
-                if ((Direction.RIGHT & directionsNeeded) == 0)
-                    return false;
+    // Plans the tiles propagation fixes whichever of its candidates each ambiguous tile turns out
+    // to be, and marks them published. Each ambiguous tile stands in as a tile which may connect on
+    // any side and must connect on none, which is never narrowed, so whatever propagation fixes
+    // around it holds for every candidate. Plans nothing when the tiles can't fit whatever the
+    // candidates are, which the search goes on to find out.
+    private ClickPlan getCertainPlan(boolean[] published) {
+        PackedGrid relaxed = new PackedGrid(mGrid);
+        Propagator propagator = new Propagator(relaxed);
+        for(int index = 0; index < relaxed.size(); ++index) {
+            if(mCandidates[index] != null) {
+                relaxed.setTile(index, TileType.END, 0);
+                propagator.freeze(index);
+            }
         }
-        {
-            int downCanConnectUp = down.canConnect(Direction.UP);
-            if (downCanConnectUp == TileState.CANNOT_CONNECT)
-                if ((Direction.DOWN & directionsNeeded) != 0)
-                    return false;
+        propagator.enqueueAll();
+        if(!propagator.propagate()) {
+            return new ClickPlan(relaxed.getRows(), new int[0]);
+        }
+        return getPlan(relaxed, published);
+    }
 
-            if (downCanConnectUp == TileState.MUST_CONNECT)
-                if ((Direction.DOWN & directionsNeeded) == 0)
-                    return false;
+    public GridInfo getGridInfo() {
+        return mGridInfo;
+    }
+
+    public PuzzleFeatures getFeatures() {
+        return PuzzleFeatures.extract(mGrid);
+    }
+
+    // Solves with whichever sequential engine is expected to be fastest for this puzzle
+    public ClickPlan getSolution() throws UnsolvableError {
+        return getSolution(SolverEngines.getSequential().select(getFeatures()));
+    }
+
+    // Number of solutions, or limit when there are at least that many
+    public long countSolutions(long limit) {
+        return new SolutionCounter(mGrid).count(limit);
+    }
+
+    public boolean hasUniqueSolution() {
+        return countSolutions(2) == 1;
+    }
+
+    public ClickPlan getSolution(SolverEngine engine) throws UnsolvableError {
+        return getSolution(engine, new CancellationToken()).plan;
+    }
+
+    // Solves until cancellationToken is cancelled, then settles for the tiles propagation can fix.
+    // Only throws when the puzzle is proven to have no solution, with InvalidBoardError when that
+    // takes no search.
+    // With more than one candidate for some tiles, those are tried most likely first when the tiles
+    // as recognised have no solution, and the solution may replace some tiles.
+    public SolveResult getSolution(SolverEngine engine, CancellationToken cancellationToken) throws UnsolvableError {
+        if(mCandidates != null) {
+            if(new CandidateSearch(mGrid, mCandidates, engine).solve(cancellationToken)) {
+                return new SolveResult(SolveResult.Status.SOLVED, getPlan(), mGrid.size(), mGrid.size());
+            }
+        } else {
+            validate();
+            if(engine.solve(mGrid, cancellationToken)) {
+                return new SolveResult(SolveResult.Status.SOLVED, getPlan(), mGrid.size(), mGrid.size());
+            }
         }
-        {
-            int leftCanConnectRight = left.canConnect(Direction.RIGHT);
-            if (leftCanConnectRight == TileState.CANNOT_CONNECT)
-                if ((Direction.LEFT & directionsNeeded) != 0)
-                    return false;
+        if(!cancellationToken.isCancelled()) {
+            throw new UnsolvableError();
+        }
+        int fixedBefore = countSolvedTiles();
+        int startOfPropagation = mGrid.getTrailSize();
+        Propagator propagator = new Propagator(mGrid);
+        propagator.enqueueAll();
+        if(!propagator.propagate()) {
+            mGrid.undo(startOfPropagation);
+            throw new UnsolvableError();
+        }
+        int fixed = countSolvedTiles();
+        return new SolveResult(
+                fixed > fixedBefore ? SolveResult.Status.PARTIAL : SolveResult.Status.GAVE_UP,
+                getPlan(),
+                fixed,
+                mGrid.size());
+    }
 
-            if (leftCanConnectRight == TileState.MUST_CONNECT)
-                if ((Direction.LEFT & directionsNeeded) == 0)
+    // Like getSolution(engine, cancellationToken) but also adds plans to taps as soon as their taps are
+    // certain, so they can be acted on while the search runs: first one for every tile propagation
+    // fixes, then one for the rest once the engine is done. The result still plans every tap.
+    // While some tiles may turn out misrecognised, the first plan only has the tiles propagation
+    // fixes whichever of their candidates those are, see getCertainPlan().
+    public SolveResult getSolution(
+            SolverEngine engine,
+            CancellationToken cancellationToken,
+            Queue<ClickPlan> taps) throws UnsolvableError {
+        if(mCandidates != null) {
+            boolean[] published = new boolean[mGrid.size()];
+            taps.add(getCertainPlan(published));
+            SolveResult result = getSolution(engine, cancellationToken);
+            taps.add(getPlan(published));
+            return result;
+        }
+        validate();
+        int startOfPropagation = mGrid.getTrailSize();
+        Propagator propagator = new Propagator(mGrid);
+        propagator.enqueueAll();
+        if(!propagator.propagate()) {
+            mGrid.undo(startOfPropagation);
+            throw new UnsolvableError();
+        }
+        boolean[] published = new boolean[mGrid.size()];
+        taps.add(getPlan(published));
+        SolveResult result = getSolution(engine, cancellationToken);
+        taps.add(getPlan(published));
+        return result;
+    }
+
+    // Tiles, as indices col * rows + row, whose type or recognised orientation differs from previous,
+    // or null when the grids are different sizes
+    public int[] getChangedCells(GameState previous) {
+        if(previous.mGrid.getCols() != mGrid.getCols() || previous.mGrid.getRows() != mGrid.getRows()) {
+            return null;
+        }
+        int[] changed = new int[mGrid.size()];
+        int count = 0;
+        for(int index = 0; index < mGrid.size(); ++index) {
+            if(previous.mGrid.getType(index) != mGrid.getType(index)
+                    || previous.mGrid.getInitialOrientation(index) != mGrid.getInitialOrientation(index)) {
+                changed[count++] = index;
+            }
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    // Whether every tile connects with its neighbours in the orientation it was recognised in,
+    // as on a board whose level is complete
+    public boolean isComplete() {
+        for(int index = 0; index < mGrid.size(); ++index) {
+            int connections = PackedGrid.getConnections(mGrid.getType(index), mGrid.getInitialOrientation(index));
+            for(int direction : Direction.ALL) {
+                int n = mGrid.neighbour(index, direction);
+                boolean neighbourConnects = n >= 0 && (PackedGrid.getConnections(
+                        mGrid.getType(n),
+                        mGrid.getInitialOrientation(n)) & Direction.opposite(direction)) != 0;
+                if(((connections & direction) != 0) != neighbourConnects) {
                     return false;
+                }
+            }
         }
         return true;
     }
 
-    public List<ClickAction> getSolution() throws UnsolvableError {
-        boolean foundMove = false;
-        boolean solved = true;
-        do {
-            foundMove = false;
-            solved = true;
-            for(int colIndex = 0; colIndex < mCols; ++colIndex) {
-                for(int rowIndex = 0; rowIndex < mRows; ++rowIndex) {
-                    TileState t = mGridState[colIndex][rowIndex];
-                    if(!t.isOrientationSolved) {
-                        ArrayList<TileOrientation> validOrientations = getValidTileOrientations(colIndex, rowIndex);
-                        if(validOrientations.size() == 1) {
-                            // Rotate the piece from its current orientation to the validOrientation
-                            doRotateTile(colIndex, rowIndex, validOrientations.get(0));
-                            t.isOrientationSolved = true;
-                            foundMove = true;
-                        } else {
-                            solved = false;
-                        }
-                        if(validOrientations.size() == 0) {
-                            throw new UnsolvableError();
+    // Solves this state starting from the solution of previous, a solved state of the same board
+    // which differs from this one only in changedCells, see getChangedCells().
+    // Solutions don't depend on recognised orientations, so when no type changed the previous
+    // solution is reused as it is. Otherwise, unless many types changed, only a window around the
+    // tiles which can't keep their orientation is searched, with the rest kept as before, and the
+    // window doubles in size each time it can't be solved on its own until it would cover the board
+    // and the whole grid is solved with engine.
+    // Like every other getSolution() the grid is validated first, so a board without solutions is
+    // rejected in one pass rather than by searching ever bigger windows. With more than one
+    // candidate for some tiles the window would only ever hold the most certain ones, so those
+    // grids are solved in full with CandidateSearch instead.
+    public SolveResult getSolution(
+            GameState previous,
+            int[] changedCells,
+            SolverEngine engine,
+            CancellationToken cancellationToken) throws UnsolvableError {
+        if(mCandidates != null) {
+            return getSolution(engine, cancellationToken);
+        }
+        validate();
+        PackedGrid solved = previous.mGrid;
+        if(changedCells == null || solved.getCols() != mGrid.getCols() || solved.getRows() != mGrid.getRows()
+                || previous.countSolvedTiles() != solved.size()) {
+            return getSolution(engine, cancellationToken);
+        }
+        // Tiles which can't keep their previous orientation
+        int[] repairs = new int[changedCells.length];
+        int repairCount = 0;
+        for(int index : changedCells) {
+            if(solved.getType(index) != mGrid.getType(index)
+                    || (mGrid.getDomain(index) & (1 << solved.getOrientation(index))) == 0) {
+                repairs[repairCount++] = index;
+            }
+        }
+        if(repairCount * MAX_REPAIR_RATIO > mGrid.size()) {
+            return getSolution(engine, cancellationToken);
+        }
+        int startOfRepair = mGrid.getTrailSize();
+        boolean[] inWindow = new boolean[mGrid.size()];
+        int[] window = new int[mGrid.size()];
+        int windowSize = 0;
+        for(int radius = repairCount == 0 ? 0 : 1; ; radius = Math.max(1, radius * 2)) {
+            for(int i = 0; i < repairCount; ++i) {
+                int col = mGrid.col(repairs[i]);
+                int row = mGrid.row(repairs[i]);
+                for(int c = Math.max(0, col - radius); c <= Math.min(mGrid.getCols() - 1, col + radius); ++c) {
+                    for(int r = Math.max(0, row - radius); r <= Math.min(mGrid.getRows() - 1, row + radius); ++r) {
+                        int index = mGrid.index(c, r);
+                        if(!inWindow[index]) {
+                            inWindow[index] = true;
+                            window[windowSize++] = index;
                         }
                     }
                 }
             }
-        } while (foundMove);
-
-        if(solved) {
-            return mActionsTaken;
-        } else {
-            // for all the valid moves on all the tiles
-            for (int colIndex = 0; colIndex < mCols; ++colIndex) {
-                for (int rowIndex = 0; rowIndex < mRows; ++rowIndex) {
-                    TileState t = mGridState[colIndex][rowIndex];
-                    if (!t.isOrientationSolved) {
-                        ArrayList<TileOrientation> validOrientations = getValidTileOrientations(colIndex, rowIndex);
-                        for(TileOrientation validOrientation : validOrientations) {
-                            GameState hypotheticalState = new GameState(mGridInfo, mCloner.deepClone(mGridState));
-                            hypotheticalState.doRotateTile(colIndex, rowIndex, validOrientation);
-                            hypotheticalState.mGridState[colIndex][rowIndex].isOrientationSolved = true;
-                            try{
-                                final List<ClickAction> solution = hypotheticalState.getSolution();
-                                List<ClickAction> actionsToReturn = new ArrayList<>();
-                                actionsToReturn.addAll(mActionsTaken);
-                                actionsToReturn.addAll(solution);
-                                return actionsToReturn;
-                            } catch (UnsolvableError e) {
-                                // ignore
-                            }
-                        }
-                    }
+            if(windowSize == mGrid.size()) {
+                return getSolution(engine, cancellationToken);
+            }
+            for(int index = 0; index < mGrid.size(); ++index) {
+                if(!inWindow[index] && !mGrid.isSolved(index)) {
+                    mGrid.setDomain(index, 1 << solved.getOrientation(index));
                 }
             }
-            // If we get to the end, we were not able to find a solution...
-            throw new UnsolvableError();
+            BacktrackingSearch search = new BacktrackingSearch(
+                    mGrid,
+                    VariableOrdering.MINIMUM_REMAINING_VALUES,
+                    ValueOrdering.FEWEST_TAPS);
+            search.setCancellationToken(cancellationToken);
+            if(search.solve(Arrays.copyOf(window, windowSize)) && isConsistent(window, windowSize)) {
+                return new SolveResult(SolveResult.Status.SOLVED, getPlan(), mGrid.size(), mGrid.size());
+            }
+            mGrid.undo(startOfRepair);
+            if(search.isIncomplete()) {
+                return getSolution(engine, cancellationToken);
+            }
         }
     }
 
-    private ArrayList<TileOrientation> getValidTileOrientations(int colIndex, int rowIndex) {
-        TileState t = mGridState[colIndex][rowIndex];
-        // check left right up and down squares
-        TileState up = rowIndex > 0 ? mGridState[colIndex][rowIndex - 1]  : TileState.EMPTY;
-        TileState right = colIndex < mCols - 1 ? mGridState[colIndex + 1][rowIndex]  : TileState.EMPTY;
-        TileState down = rowIndex < mRows - 1 ? mGridState[colIndex][rowIndex + 1]  : TileState.EMPTY;
-        TileState left = colIndex > 0 ? mGridState[colIndex - 1][rowIndex] : TileState.EMPTY;
-        // find orientations that are valid with the adjacent squares
-        ArrayList<TileOrientation> validOrientations = new ArrayList<>();
-        TileOrientation[] candidateOrientations = t.type.getPossibleOrientations();
-        for(TileOrientation candidate : candidateOrientations) {
-            if(isValidOrientation(t.type, candidate, up, right, down, left)) {
-                validOrientations.add(candidate);
+    // The search never revises tiles which were solved from the start, such as a CROSS,
+    // so check those against the tiles kept around them
+    private boolean isConsistent(int[] cells, int count) {
+        for(int i = 0; i < count; ++i) {
+            if(mGrid.getSupportedOrientations(cells[i]) == 0) {
+                return false;
             }
         }
-        return validOrientations;
+        return true;
+    }
+
+    // Rejects grids failing the necessary conditions of BoardValidator, which take a single pass
+    // where proving the grid unsolvable by search can take the whole budget
+    private void validate() throws InvalidBoardError {
+        BoardValidator validator = new BoardValidator(mGrid);
+        int[] suspiciousCells = validator.validate();
+        if(suspiciousCells != null) {
+            throw new InvalidBoardError(validator.getViolation(), suspiciousCells);
+        }
+    }
+
+    private int countSolvedTiles() {
+        int count = 0;
+        for(int index = 0; index < mGrid.size(); ++index) {
+            if(mGrid.isSolved(index)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    public ClickPlan getSolution(
+            VariableOrdering variableOrdering,
+            ValueOrdering valueOrdering) throws UnsolvableError {
+        return getSolution(new SolverEngines.BacktrackingEngine(variableOrdering, valueOrdering));
+    }
+
+    // Splits the top levels of the search across the workers of pool
+    public ClickPlan getParallelSolution(ForkJoinPool pool) throws UnsolvableError {
+        return getSolution(new SolverEngines.ParallelEngine(pool));
+    }
+
+    // Races randomised restarting searches on the workers of pool
+    public ClickPlan getPortfolioSolution(ForkJoinPool pool) throws UnsolvableError {
+        return getSolution(new SolverEngines.PortfolioEngine(pool));
+    }
+
+    // The solution needing the fewest taps, when the puzzle has more than one
+    public ClickPlan getMinimumTapSolution() throws UnsolvableError {
+        return getSolution(SolverEngines.MINIMUM_TAPS);
+    }
+
+    // Solves the grid as a SAT problem with the bundled clause learning solver
+    public ClickPlan getSatSolution() throws UnsolvableError {
+        return getSolution(SolverEngines.SAT);
     }
 
     private GridInfo mGridInfo;
-    private TileState[][] mGridState;
-    private ArrayList<ClickAction> mActionsTaken = new ArrayList<>();
+    private PackedGrid mGrid;
+
+    // candidates for each tile by index, most certain first, or null when every tile has one
+    private TileCandidate[][] mCandidates;
 
     public GameState(GridInfo gridInfo, TileState[][] gridstate) {
+        this(gridInfo, new PackedGrid(gridstate));
+    }
+
+    // candidates holds, by column then row, the ways recognition read each tile, most certain
+    // first. The first candidate of each tile is taken as the tile, the others are tried when the
+    // grid has no solution as recognised, see CandidateSearch.
+    public GameState(GridInfo gridInfo, TileCandidate[][][] candidates) {
+        this(gridInfo, new PackedGrid(getMostCertain(candidates)));
+        for(int col = 0; col < candidates.length; ++col) {
+            for(int row = 0; row < candidates[col].length; ++row) {
+                if(candidates[col][row].length > 1) {
+                    if(mCandidates == null) {
+                        mCandidates = new TileCandidate[mGrid.size()][];
+                    }
+                    mCandidates[mGrid.index(col, row)] = candidates[col][row];
+                }
+            }
+        }
+    }
+
+    private GameState(GridInfo gridInfo, PackedGrid grid) {
         mGridInfo = gridInfo;
-        mGridState = gridstate;
-        mCols = mGridState.length;
-        mRows = mGridState[0].length;
+        mGrid = grid;
+    }
+
+    private static TileState[][] getMostCertain(TileCandidate[][][] candidates) {
+        TileState[][] gridState = new TileState[candidates.length][];
+        for(int col = 0; col < candidates.length; ++col) {
+            gridState[col] = new TileState[candidates[col].length];
+            for(int row = 0; row < candidates[col].length; ++row) {
+                TileState t = new TileState();
+                t.type = candidates[col][row][0].type;
+                t.orientation = candidates[col][row][0].orientation;
+                gridState[col][row] = t;
+            }
+        }
+        return gridState;
+    }
+
+    // Whether recognition found more than one candidate for some tile
+    public boolean hasAmbiguousTiles() {
+        return mCandidates != null;
     }
 
     public static class UnsolvableError extends Throwable {
     }
+
+    // Thrown before searching a grid which fails a BoardValidator check, most likely because some
+    // tile was misrecognised
+    public static class InvalidBoardError extends UnsolvableError {
+        public final BoardValidator.Violation violation;
+        // tiles, as indices col * rows + row, where the check failed
+        public final int[] suspiciousCells;
+
+        InvalidBoardError(BoardValidator.Violation violation, int[] suspiciousCells) {
+            this.violation = violation;
+            this.suspiciousCells = suspiciousCells;
+        }
+
+        @Override
+        public String getMessage() {
+            return String.format("%s check failed at %s tiles", violation, suspiciousCells.length);
+        }
+    }
 }
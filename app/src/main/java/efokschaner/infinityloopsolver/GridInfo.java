@@ -6,4 +6,13 @@ public class GridInfo {
     public double originY;
     public double colWidth;
     public double rowHeight;
+
+    // Where to tap the tile in the given column or row, in screen pixels
+    public int getClickX(int col) {
+        return (int) (originX + colWidth * (col + 0.5));
+    }
+
+    public int getClickY(int row) {
+        return (int) (originY + rowHeight * (row + 0.5));
+    }
 }
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +32,9 @@ public class ImageProcessor {
     private static final boolean PROFILE = false;
     private static final int PYRAMID_LEVELS = 3;
     private static final double TEMPLATE_MATCH_THRESH_VAL = 0.3;
+    // Types kept as candidates for a tile, see getCandidates()
+    private static final int MAX_CANDIDATES = 3;
+    private static final double CANDIDATE_CERTAINTY_MARGIN = 0.1;
     private static final FastMatchThresholdCallback SQDIFF_NORMED_FAST_MATCH_CALLBACK = new FastMatchThresholdCallback() {
         @Override
         public Mat call(Mat match) {
@@ -234,6 +238,33 @@ public class ImageProcessor {
         }
     }
 
+    // Keeps up to MAX_CANDIDATES of the matches, one per type, whose certainty is within
+    // CANDIDATE_CERTAINTY_MARGIN of the best, most certain first.
+    // A tile nothing matched is empty.
+    private static TileCandidate[] getCandidates(TileCandidate[] bestByType) {
+        List<TileCandidate> candidates = new ArrayList<>();
+        for (TileCandidate candidate : bestByType) {
+            if (candidate != null) {
+                candidates.add(candidate);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return new TileCandidate[]{new TileCandidate(TileType.EMPTY, TileOrientation.ZERO, 0)};
+        }
+        Collections.sort(candidates, new Comparator<TileCandidate>() {
+            @Override
+            public int compare(TileCandidate a, TileCandidate b) {
+                return Double.compare(b.certainty, a.certainty);
+            }
+        });
+        int count = 1;
+        while (count < Math.min(MAX_CANDIDATES, candidates.size())
+                && candidates.get(0).certainty - candidates.get(count).certainty <= CANDIDATE_CERTAINTY_MARGIN) {
+            ++count;
+        }
+        return candidates.subList(0, count).toArray(new TileCandidate[count]);
+    }
+
     public GameState getGameStateFromImage(Bitmap b) {
         if (PROFILE) {
             android.os.Debug.startMethodTracing();
@@ -486,26 +517,22 @@ public class ImageProcessor {
                 }
             }
 
-            TileState[][] gridState = new TileState[cols][rows];
-            for (int colIndex = 0; colIndex < cols; ++colIndex) {
-                for (int rowIndex = 0; rowIndex < rows; ++rowIndex) {
-                    gridState[colIndex][rowIndex] = TileState.EMPTY;
-                }
-            }
-
-            double[][] gridCertainties = new double[cols][rows];
-
+            // The best match of each type at each tile, then for each tile those close enough to
+            // its best match to be worth trying, most certain first
+            TileCandidate[][][] bestByType = new TileCandidate[cols][rows][TileType.values().length];
             for (GuessRecord guess : guesses) {
                 int colIndex = (int) Math.round((guess.xpos - gridInfo.originX) / gridInfo.colWidth);
                 int rowIndex = (int) Math.round((guess.ypos - gridInfo.originY) / gridInfo.rowHeight);
-                TileState targetEntry = gridState[colIndex][rowIndex];
-                double priorCertainty = gridCertainties[colIndex][rowIndex];
-                if (guess.certainty > priorCertainty) {
-                    TileState newVal = new TileState();
-                    newVal.type = guess.type;
-                    newVal.orientation = guess.orientation;
-                    gridState[colIndex][rowIndex] = newVal;
-                    gridCertainties[colIndex][rowIndex] = guess.certainty;
+                TileCandidate prior = bestByType[colIndex][rowIndex][guess.type.ordinal()];
+                if (guess.certainty > (prior == null ? 0 : prior.certainty)) {
+                    bestByType[colIndex][rowIndex][guess.type.ordinal()] =
+                            new TileCandidate(guess.type, guess.orientation, guess.certainty);
+                }
+            }
+            TileCandidate[][][] candidates = new TileCandidate[cols][rows][];
+            for (int colIndex = 0; colIndex < cols; ++colIndex) {
+                for (int rowIndex = 0; rowIndex < rows; ++rowIndex) {
+                    candidates[colIndex][rowIndex] = getCandidates(bestByType[colIndex][rowIndex]);
                 }
             }
 
@@ -526,7 +553,7 @@ public class ImageProcessor {
                 Mat debugImage = new Mat(unalignedBitmap.getHeight(), unalignedBitmap.getWidth(), CvType.CV_8UC1);
                 for (int colIndex = 0; colIndex < cols; ++colIndex) {
                     for (int rowIndex = 0; rowIndex < rows; ++rowIndex) {
-                        TileState t = gridState[colIndex][rowIndex];
+                        TileCandidate t = candidates[colIndex][rowIndex][0];
                         if (t.type != TileType.EMPTY) {
                             final Mat tileImage = mTileImages.get(t.type).precomputedImages.get(derivedScale).get(t.orientation).get(0);
                             final Mat resizedTileImage = new Mat();
@@ -545,7 +572,7 @@ public class ImageProcessor {
                 Debug.sendMatrix(debugImage);
             }
 
-            return new GameState(gridInfo, gridState);
+            return new GameState(gridInfo, candidates);
         } finally {
             unalignedBitmap.recycle();
             if (PROFILE) {
@@ -0,0 +1,264 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Deductions stronger than the arc consistency of Propagator, for use before any decision is made.
+// Each rule can be switched off and Counters records the orientations it eliminated and the time it
+// took, so the rules can be measured against each other.
+// Rules like "two END tiles never face each other" assume the pipes form a single network,
+// which puzzles don't promise, and the border chains of LINE and TEE tiles already follow from
+// Propagator treating the border as a closed edge, so neither is here.
+// The eliminations rely on more than a tile's immediate neighbours, which is what
+// BacktrackingSearch assumes when explaining conflicts, so apply() must run before its first decision.
+public class Inference {
+    public enum Rule {
+        // Keeps only orientations which fit some combination of orientations of the other three
+        // tiles of every 2x2 block they are in, which catches contradictions around small loops
+        BLOCK_2X2,
+        // Tries every orientation of every ambiguous tile and removes those which propagate to a
+        // contradiction
+        FAILED_ORIENTATION,
+    }
+
+    // Neither rule saves the search as much time as it takes on random boards, probing least of all
+    // since it costs a propagation per orientation of every ambiguous tile, so both are off unless
+    // asked for. Counters shows whether they pay for themselves on other boards.
+    public static final Set<Rule> DEFAULT_RULES = Collections.unmodifiableSet(EnumSet.noneOf(Rule.class));
+
+    // Orientations eliminated and nanoseconds spent by each rule, summed over every Inference
+    // sharing the counters, which may run on different threads
+    public static class Counters {
+        private final AtomicLongArray mEliminated = new AtomicLongArray(Rule.values().length);
+        private final AtomicLongArray mNanos = new AtomicLongArray(Rule.values().length);
+
+        public long getEliminated(Rule rule) {
+            return mEliminated.get(rule.ordinal());
+        }
+
+        public long getNanos(Rule rule) {
+            return mNanos.get(rule.ordinal());
+        }
+
+        private void add(Rule rule, int eliminated, long nanos) {
+            mEliminated.addAndGet(rule.ordinal(), eliminated);
+            mNanos.addAndGet(rule.ordinal(), nanos);
+        }
+    }
+
+    private static final TileType[] TYPES = TileType.values();
+    // The four inner edges of a 2x2 block, bit 0 between the top tiles, bit 1 between the bottom
+    // ones, bit 2 between the left ones and bit 3 between the right ones.
+    // A tile's pattern is whether it opens the horizontal (bit 0) and vertical (bit 1) inner edge
+    // it touches, for the tiles at the top left, top right, bottom left and bottom right.
+    private static final int[] HORIZONTAL_SIDE = {Direction.RIGHT, Direction.LEFT, Direction.RIGHT, Direction.LEFT};
+    private static final int[] VERTICAL_SIDE = {Direction.DOWN, Direction.DOWN, Direction.UP, Direction.UP};
+    // pattern of the tile at each (position * 16 + inner edges)
+    private static final int[] BLOCK_PATTERN = new int[4 * 16];
+    // patterns opened by some orientation of each ((position * TYPES.length + type ordinal) * 16 + domain)
+    private static final int[] BLOCK_PATTERNS = new int[4 * TYPES.length * 16];
+    // orientations opening each ((position * TYPES.length + type ordinal) * 4 + pattern)
+    private static final int[] BLOCK_ORIENTATIONS = new int[4 * TYPES.length * 4];
+
+    static {
+        for(int position = 0; position < 4; ++position) {
+            for(int edges = 0; edges < 16; ++edges) {
+                BLOCK_PATTERN[position * 16 + edges] =
+                        ((edges >> (position / 2)) & 1) | (((edges >> (2 + position % 2)) & 1) << 1);
+            }
+            for(TileType type : TYPES) {
+                int key = position * TYPES.length + type.ordinal();
+                int possible = PackedGrid.getPossibleOrientations(type);
+                for(int o = 0; o < 4; ++o) {
+                    if((possible & (1 << o)) == 0) {
+                        continue;
+                    }
+                    int connections = PackedGrid.getConnections(type, o);
+                    int pattern = ((connections & HORIZONTAL_SIDE[position]) != 0 ? 1 : 0)
+                            | ((connections & VERTICAL_SIDE[position]) != 0 ? 2 : 0);
+                    BLOCK_ORIENTATIONS[key * 4 + pattern] |= 1 << o;
+                }
+                for(int domain = 0; domain < 16; ++domain) {
+                    for(int pattern = 0; pattern < 4; ++pattern) {
+                        if((BLOCK_ORIENTATIONS[key * 4 + pattern] & domain) != 0) {
+                            BLOCK_PATTERNS[key * 16 + domain] |= 1 << pattern;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private final PackedGrid mGrid;
+    private final Propagator mPropagator;
+    private final Set<Rule> mRules;
+    private final Counters mCounters;
+    private CancellationToken mCancellationToken = new CancellationToken();
+
+    public Inference(PackedGrid grid) {
+        this(grid, DEFAULT_RULES, new Counters());
+    }
+
+    // Applies rules only, adding what they do to counters
+    public Inference(PackedGrid grid, Set<Rule> rules, Counters counters) {
+        mGrid = grid;
+        mPropagator = new Propagator(grid);
+        mRules = rules.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(rules);
+        mCounters = counters;
+    }
+
+    // apply() stops early, leaving whatever it has deduced so far, soon after the token is cancelled
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    public Counters getCounters() {
+        return mCounters;
+    }
+
+    // Propagates and applies the enabled rules, cheapest first, until none of them changes anything.
+    // Returns false if the grid turns out to have no solution.
+    public boolean apply() {
+        mPropagator.enqueueAll();
+        if(!mPropagator.propagate()) {
+            return false;
+        }
+        boolean changed = true;
+        while(changed && !mCancellationToken.isCancelled()) {
+            changed = false;
+            for(Rule rule : mRules) {
+                long start = System.nanoTime();
+                int eliminated = rule == Rule.BLOCK_2X2 ? applyBlocks() : applyFailedOrientations();
+                mCounters.add(rule, Math.max(eliminated, 0), System.nanoTime() - start);
+                if(eliminated < 0) {
+                    return false;
+                }
+                if(eliminated > 0) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Narrows the tile at index to domain and propagates, returning false on a contradiction
+    private boolean narrow(int index, int domain) {
+        mGrid.setDomain(index, domain);
+        mPropagator.enqueueNeighbours(index);
+        return mPropagator.propagate();
+    }
+
+    // Returns the number of orientations eliminated, or -1 on a contradiction
+    private int applyBlocks() {
+        int eliminated = 0;
+        int[] tiles = new int[4];
+        int[] supported = new int[4];
+        for(int col = 0; col + 1 < mGrid.getCols(); ++col) {
+            for(int row = 0; row + 1 < mGrid.getRows(); ++row) {
+                // top left, top right, bottom left, bottom right
+                tiles[0] = mGrid.index(col, row);
+                tiles[1] = mGrid.index(col + 1, row);
+                tiles[2] = mGrid.index(col, row + 1);
+                tiles[3] = mGrid.index(col + 1, row + 1);
+                if(mGrid.isSolved(tiles[0]) && mGrid.isSolved(tiles[1])
+                        && mGrid.isSolved(tiles[2]) && mGrid.isSolved(tiles[3])) {
+                    continue;
+                }
+                findBlockSupport(tiles, supported);
+                for(int i = 0; i < 4; ++i) {
+                    // Narrowing an earlier tile of the block may have propagated into this one,
+                    // so its support only ever takes orientations away from what is left
+                    int domain = mGrid.getDomain(tiles[i]);
+                    int narrowed = supported[i] & domain;
+                    if(narrowed != domain) {
+                        eliminated += Integer.bitCount(domain & ~narrowed);
+                        if(narrowed == 0 || !narrow(tiles[i], narrowed)) {
+                            return -1;
+                        }
+                    }
+                }
+            }
+        }
+        return eliminated;
+    }
+
+    // Sets supported[i] to the orientations of tiles[i] which agree with some orientations of the
+    // other three on the four edges inside the block, going through the 16 ways of opening those
+    // edges rather than the orientations of the tiles
+    private void findBlockSupport(int[] tiles, int[] supported) {
+        int reached0 = 0;
+        int reached1 = 0;
+        int reached2 = 0;
+        int reached3 = 0;
+        int key0 = mGrid.getType(tiles[0]).ordinal();
+        int key1 = TYPES.length + mGrid.getType(tiles[1]).ordinal();
+        int key2 = 2 * TYPES.length + mGrid.getType(tiles[2]).ordinal();
+        int key3 = 3 * TYPES.length + mGrid.getType(tiles[3]).ordinal();
+        int patterns0 = BLOCK_PATTERNS[key0 * 16 + mGrid.getDomain(tiles[0])];
+        int patterns1 = BLOCK_PATTERNS[key1 * 16 + mGrid.getDomain(tiles[1])];
+        int patterns2 = BLOCK_PATTERNS[key2 * 16 + mGrid.getDomain(tiles[2])];
+        int patterns3 = BLOCK_PATTERNS[key3 * 16 + mGrid.getDomain(tiles[3])];
+        for(int edges = 0; edges < 16; ++edges) {
+            int p0 = 1 << BLOCK_PATTERN[edges];
+            int p1 = 1 << BLOCK_PATTERN[16 + edges];
+            int p2 = 1 << BLOCK_PATTERN[32 + edges];
+            int p3 = 1 << BLOCK_PATTERN[48 + edges];
+            if((patterns0 & p0) != 0 && (patterns1 & p1) != 0 && (patterns2 & p2) != 0 && (patterns3 & p3) != 0) {
+                reached0 |= p0;
+                reached1 |= p1;
+                reached2 |= p2;
+                reached3 |= p3;
+            }
+        }
+        supported[0] = getBlockOrientations(key0, reached0) & mGrid.getDomain(tiles[0]);
+        supported[1] = getBlockOrientations(key1, reached1) & mGrid.getDomain(tiles[1]);
+        supported[2] = getBlockOrientations(key2, reached2) & mGrid.getDomain(tiles[2]);
+        supported[3] = getBlockOrientations(key3, reached3) & mGrid.getDomain(tiles[3]);
+    }
+
+    private static int getBlockOrientations(int key, int patterns) {
+        int orientations = 0;
+        for(int pattern = 0; pattern < 4; ++pattern) {
+            if((patterns & (1 << pattern)) != 0) {
+                orientations |= BLOCK_ORIENTATIONS[key * 4 + pattern];
+            }
+        }
+        return orientations;
+    }
+
+    // Returns the number of orientations eliminated, or -1 on a contradiction
+    private int applyFailedOrientations() {
+        int eliminated = 0;
+        for(int index = 0; index < mGrid.size(); ++index) {
+            if(mGrid.isSolved(index)) {
+                continue;
+            }
+            if(mCancellationToken.isCancelled()) {
+                break;
+            }
+            int domain = mGrid.getDomain(index);
+            int remaining = domain;
+            for(int o = 0; o < 4; ++o) {
+                if((domain & (1 << o)) == 0) {
+                    continue;
+                }
+                int mark = mGrid.getTrailSize();
+                boolean consistent = narrow(index, 1 << o);
+                mGrid.undo(mark);
+                if(!consistent) {
+                    remaining &= ~(1 << o);
+                }
+            }
+            if(remaining != domain) {
+                eliminated += Integer.bitCount(domain & ~remaining);
+                if(remaining == 0 || !narrow(index, remaining)) {
+                    return -1;
+                }
+            }
+        }
+        return eliminated;
+    }
+}
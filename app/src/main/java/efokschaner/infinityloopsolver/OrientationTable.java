@@ -0,0 +1,70 @@
+package efokschaner.infinityloopsolver;
+
+// Precomputed answers to "which orientations of this tile agree with its neighbours".
+// A neighbour constraint signature packs, for each side in Direction.ALL order, whether the
+// neighbour on that side CANNOT_CONNECT, CAN_CONNECT or MUST_CONNECT (see TileState)
+// as one base 3 digit, giving 81 signatures per TileType.
+public class OrientationTable {
+    public static final int SIGNATURES = 81;
+
+    private static final TileType[] TYPES = TileType.values();
+    // legal orientation mask for each (type ordinal * SIGNATURES + signature)
+    private static final int[] LEGAL_ORIENTATIONS = new int[TYPES.length * SIGNATURES];
+    // directions connected by some / every orientation for each (type ordinal * 16 + domain)
+    private static final int[] MAY_CONNECT = new int[TYPES.length * 16];
+    private static final int[] MUST_CONNECT = new int[TYPES.length * 16];
+
+    static {
+        for(TileType type : TYPES) {
+            int possible = PackedGrid.getPossibleOrientations(type);
+            for(int signature = 0; signature < SIGNATURES; ++signature) {
+                int legal = 0;
+                for(int o = 0; o < 4; ++o) {
+                    if((possible & (1 << o)) != 0 && agrees(PackedGrid.getConnections(type, o), signature)) {
+                        legal |= 1 << o;
+                    }
+                }
+                LEGAL_ORIENTATIONS[type.ordinal() * SIGNATURES + signature] = legal;
+            }
+            for(int domain = 0; domain < 16; ++domain) {
+                int may = 0;
+                int must = domain == 0 ? 0 : 0xF;
+                for(int o = 0; o < 4; ++o) {
+                    if((domain & (1 << o)) != 0) {
+                        may |= PackedGrid.getConnections(type, o);
+                        must &= PackedGrid.getConnections(type, o);
+                    }
+                }
+                MAY_CONNECT[type.ordinal() * 16 + domain] = may;
+                MUST_CONNECT[type.ordinal() * 16 + domain] = must;
+            }
+        }
+    }
+
+    private static boolean agrees(int connections, int signature) {
+        for(int direction : Direction.ALL) {
+            int constraint = signature % 3;
+            signature /= 3;
+            boolean connects = (connections & direction) != 0;
+            if(constraint == TileState.CANNOT_CONNECT && connects) {
+                return false;
+            }
+            if(constraint == TileState.MUST_CONNECT && !connects) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static int getLegalOrientations(int typeOrdinal, int signature) {
+        return LEGAL_ORIENTATIONS[typeOrdinal * SIGNATURES + signature];
+    }
+
+    public static int getMayConnect(int typeOrdinal, int domain) {
+        return MAY_CONNECT[typeOrdinal * 16 + domain];
+    }
+
+    public static int getMustConnect(int typeOrdinal, int domain) {
+        return MUST_CONNECT[typeOrdinal * 16 + domain];
+    }
+}
@@ -0,0 +1,298 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.Arrays;
+
+// Grid of tiles stored as one int per cell, indexed column-major (col * rows + row).
+// Cell layout:
+//   bits 0-2  TileType ordinal
+//   bits 3-4  orientation
+//   bit  5    orientation solved
+//   bits 6-9  connection directions in the current orientation
+//   bits 10-13 domain, the orientations still considered legal (bit n set means orientation n)
+//   bits 14-15 orientation the tile had when the grid was recognised
+public class PackedGrid {
+    private static final int TYPE_MASK = 0x7;
+    private static final int ORIENTATION_SHIFT = 3;
+    private static final int ORIENTATION_MASK = 0x3 << ORIENTATION_SHIFT;
+    private static final int SOLVED_BIT = 1 << 5;
+    private static final int CONNECTIONS_SHIFT = 6;
+    private static final int CONNECTIONS_MASK = 0xF << CONNECTIONS_SHIFT;
+    private static final int DOMAIN_SHIFT = 10;
+    private static final int DOMAIN_MASK = 0xF << DOMAIN_SHIFT;
+    private static final int INITIAL_ORIENTATION_SHIFT = 14;
+    private static final int INITIAL_ORIENTATION_MASK = 0x3 << INITIAL_ORIENTATION_SHIFT;
+
+    private static final TileType[] TYPES = TileType.values();
+    // connection directions for each (type ordinal * 4 + orientation)
+    private static final int[] CONNECTIONS = new int[TYPES.length * 4];
+    // bit mask of getPossibleOrientations() for each type ordinal
+    private static final int[] POSSIBLE_ORIENTATIONS = new int[TYPES.length];
+    // taps for each (type ordinal * 16 + initial orientation * 4 + orientation), see getTaps()
+    private static final int[] TAPS = new int[TYPES.length * 16];
+
+    static {
+        for(TileType type : TYPES) {
+            for(int o = 0; o < 4; ++o) {
+                CONNECTIONS[type.ordinal() * 4 + o] = Direction.applyOrientation(o, type.getConnectionDirections());
+            }
+            for(TileOrientation o : type.getPossibleOrientations()) {
+                POSSIBLE_ORIENTATIONS[type.ordinal()] |= 1 << o.getValue();
+            }
+        }
+        for(TileType type : TYPES) {
+            for(int initial = 0; initial < 4; ++initial) {
+                for(int o = 0; o < 4; ++o) {
+                    int taps = 4;
+                    for(int equivalent = 0; equivalent < 4; ++equivalent) {
+                        if(getConnections(type, equivalent) == getConnections(type, o)) {
+                            taps = Math.min(taps, (equivalent - initial) & 3);
+                        }
+                    }
+                    TAPS[type.ordinal() * 16 + initial * 4 + o] = taps;
+                }
+            }
+        }
+    }
+
+    public static int getConnections(TileType type, int orientation) {
+        return CONNECTIONS[type.ordinal() * 4 + orientation];
+    }
+
+    public static int getPossibleOrientations(TileType type) {
+        return POSSIBLE_ORIENTATIONS[type.ordinal()];
+    }
+
+    private static int pack(int typeOrdinal, int orientation, boolean solved, int domain, int initialOrientation) {
+        return typeOrdinal
+                | (orientation << ORIENTATION_SHIFT)
+                | (solved ? SOLVED_BIT : 0)
+                | (CONNECTIONS[typeOrdinal * 4 + orientation] << CONNECTIONS_SHIFT)
+                | (domain << DOMAIN_SHIFT)
+                | (initialOrientation << INITIAL_ORIENTATION_SHIFT);
+    }
+
+    private static int packInitial(int typeOrdinal, int orientation, boolean solved) {
+        int domain = solved ? 1 << orientation : POSSIBLE_ORIENTATIONS[typeOrdinal];
+        if(Integer.bitCount(domain) == 1) {
+            return pack(typeOrdinal, Integer.numberOfTrailingZeros(domain), true, domain, orientation);
+        }
+        return pack(typeOrdinal, orientation, false, domain, orientation);
+    }
+
+    private final int mCols;
+    private final int mRows;
+    private final int[] mCells;
+    // undo trail of (index, previous cell value) pairs, see getTrailSize() and undo()
+    private int[] mTrail = new int[64];
+    private int mTrailSize = 0;
+
+    public PackedGrid(TileState[][] gridState) {
+        mCols = gridState.length;
+        mRows = gridState[0].length;
+        mCells = new int[mCols * mRows];
+        for(int colIndex = 0; colIndex < mCols; ++colIndex) {
+            for(int rowIndex = 0; rowIndex < mRows; ++rowIndex) {
+                TileState t = gridState[colIndex][rowIndex];
+                mCells[index(colIndex, rowIndex)] = packInitial(
+                        t.type.ordinal(),
+                        t.orientation.getValue(),
+                        t.isOrientationSolved);
+            }
+        }
+    }
+
+    public PackedGrid(PackedGrid other) {
+        mCols = other.mCols;
+        mRows = other.mRows;
+        mCells = other.mCells.clone();
+    }
+
+    public int getTrailSize() {
+        return mTrailSize;
+    }
+
+    // Index of the cell changed by the trail entry at position, an even number below getTrailSize()
+    public int getTrailIndex(int position) {
+        return mTrail[position];
+    }
+
+    // Rolls every cell back to how it was when the trail had the given size
+    public void undo(int trailSize) {
+        while(mTrailSize > trailSize) {
+            mTrailSize -= 2;
+            mCells[mTrail[mTrailSize]] = mTrail[mTrailSize + 1];
+        }
+    }
+
+    // Overwrites every cell with the corresponding cell of other, a grid of the same dimensions,
+    // recording the changes on the trail
+    public void copyFrom(PackedGrid other) {
+        for(int index = 0; index < mCells.length; ++index) {
+            if(mCells[index] != other.mCells[index]) {
+                record(index);
+                mCells[index] = other.mCells[index];
+            }
+        }
+    }
+
+    // Like copyFrom() but only for the given cells
+    public void copyFrom(PackedGrid other, int[] cells) {
+        for(int index : cells) {
+            if(mCells[index] != other.mCells[index]) {
+                record(index);
+                mCells[index] = other.mCells[index];
+            }
+        }
+    }
+
+    private void record(int index) {
+        if(mTrailSize == mTrail.length) {
+            mTrail = Arrays.copyOf(mTrail, mTrail.length * 2);
+        }
+        mTrail[mTrailSize] = index;
+        mTrail[mTrailSize + 1] = mCells[index];
+        mTrailSize += 2;
+    }
+
+    public int getCols() {
+        return mCols;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public int size() {
+        return mCells.length;
+    }
+
+    public int index(int col, int row) {
+        return col * mRows + row;
+    }
+
+    public int col(int index) {
+        return index / mRows;
+    }
+
+    public int row(int index) {
+        return index % mRows;
+    }
+
+    // Returns the index of the adjacent cell in the given direction, or -1 when off the grid
+    public int neighbour(int index, int direction) {
+        switch(direction) {
+            case Direction.UP:
+                return index % mRows > 0 ? index - 1 : -1;
+            case Direction.DOWN:
+                return index % mRows < mRows - 1 ? index + 1 : -1;
+            case Direction.LEFT:
+                return index >= mRows ? index - mRows : -1;
+            case Direction.RIGHT:
+                return index < mCells.length - mRows ? index + mRows : -1;
+            default:
+                throw new IllegalArgumentException("Not a single direction: " + direction);
+        }
+    }
+
+    public TileType getType(int index) {
+        return TYPES[mCells[index] & TYPE_MASK];
+    }
+
+    public int getOrientation(int index) {
+        return (mCells[index] & ORIENTATION_MASK) >>> ORIENTATION_SHIFT;
+    }
+
+    public boolean isSolved(int index) {
+        return (mCells[index] & SOLVED_BIT) != 0;
+    }
+
+    public int getConnections(int index) {
+        return (mCells[index] & CONNECTIONS_MASK) >>> CONNECTIONS_SHIFT;
+    }
+
+    public int getInitialOrientation(int index) {
+        return (mCells[index] & INITIAL_ORIENTATION_MASK) >>> INITIAL_ORIENTATION_SHIFT;
+    }
+
+    public int getDomain(int index) {
+        return (mCells[index] & DOMAIN_MASK) >>> DOMAIN_SHIFT;
+    }
+
+    // Narrows the domain of the tile at index to domain, which must be a subset of the current one.
+    // A tile left with a single legal orientation is rotated to it and marked solved.
+    public void setDomain(int index, int domain) {
+        record(index);
+        int cell = mCells[index];
+        if(Integer.bitCount(domain) == 1) {
+            mCells[index] = pack(
+                    cell & TYPE_MASK,
+                    Integer.numberOfTrailingZeros(domain),
+                    true,
+                    domain,
+                    (cell & INITIAL_ORIENTATION_MASK) >>> INITIAL_ORIENTATION_SHIFT);
+        } else {
+            mCells[index] = (cell & ~DOMAIN_MASK) | (domain << DOMAIN_SHIFT);
+        }
+    }
+
+    // Replaces the tile at index with one of another type, recognised in the given orientation
+    // and with all of its orientations legal again. Rolled back by undo() like setDomain().
+    public void setTile(int index, TileType type, int initialOrientation) {
+        record(index);
+        mCells[index] = packInitial(type.ordinal(), initialOrientation, false);
+    }
+
+    // Fewest clockwise taps turning the tile at index from its initial orientation to one which
+    // connects the same way as the given orientation. Symmetric tiles have several such orientations.
+    public int getTaps(int index, int orientation) {
+        int cell = mCells[index];
+        return TAPS[(cell & TYPE_MASK) * 16 + ((cell & INITIAL_ORIENTATION_MASK) >>> INITIAL_ORIENTATION_SHIFT) * 4 + orientation];
+    }
+
+    public int getTaps(int index) {
+        return getTaps(index, getOrientation(index));
+    }
+
+    // Directions in which the tile at index connects for at least one orientation in its domain
+    public int getMayConnect(int index) {
+        int cell = mCells[index];
+        return OrientationTable.getMayConnect(cell & TYPE_MASK, (cell & DOMAIN_MASK) >>> DOMAIN_SHIFT);
+    }
+
+    // Directions in which the tile at index connects for every orientation in its domain
+    public int getMustConnect(int index) {
+        int cell = mCells[index];
+        return OrientationTable.getMustConnect(cell & TYPE_MASK, (cell & DOMAIN_MASK) >>> DOMAIN_SHIFT);
+    }
+
+    // Describes what the neighbours of the tile at index allow on each side,
+    // in the form used by OrientationTable.
+    // Off-grid neighbours behave like solved EMPTY tiles.
+    public int getNeighbourSignature(int index) {
+        int signature = 0;
+        int weight = 1;
+        for(int direction : Direction.ALL) {
+            int n = neighbour(index, direction);
+            int constraint = TileState.CANNOT_CONNECT;
+            if(n >= 0) {
+                int back = Direction.opposite(direction);
+                if((getMustConnect(n) & back) != 0) {
+                    constraint = TileState.MUST_CONNECT;
+                } else if((getMayConnect(n) & back) != 0) {
+                    constraint = TileState.CAN_CONNECT;
+                }
+            }
+            signature += constraint * weight;
+            weight *= 3;
+        }
+        return signature;
+    }
+
+    // Returns the orientations in the domain of the tile at index which can agree with
+    // the domains of all of its neighbours, as a bit mask.
+    public int getSupportedOrientations(int index) {
+        int cell = mCells[index];
+        return OrientationTable.getLegalOrientations(cell & TYPE_MASK, getNeighbourSignature(index))
+                & ((cell & DOMAIN_MASK) >>> DOMAIN_SHIFT);
+    }
+}
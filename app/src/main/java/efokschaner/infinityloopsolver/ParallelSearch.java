@@ -0,0 +1,173 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Searches the alternatives of the top levels of the search tree concurrently on a ForkJoinPool.
+// Independent regions of unsolved tiles are solved by separate tasks and merged afterwards.
+// Below the split depth each task runs a sequential BacktrackingSearch on its own copy of the grid,
+// and idle workers steal the remaining alternatives. Once one alternative finds a solution,
+// or one region turns out to be unsolvable, the sibling tasks stop at their next node.
+// The sequential searches share one TranspositionTable, so a region one worker finds dead is
+// skipped by every other worker that meets it.
+public class ParallelSearch {
+    private final PackedGrid mGrid;
+    private final VariableOrdering mVariableOrdering;
+    private final ValueOrdering mValueOrdering;
+    private final int mSplitDepth;
+    private TranspositionTable mDeadRegions = new TranspositionTable(TranspositionTable.DEFAULT_MEMORY_BYTES);
+    private Set<Inference.Rule> mInferenceRules = Inference.DEFAULT_RULES;
+    private Inference.Counters mInferenceCounters = new Inference.Counters();
+    private CancellationToken mCancellationToken = new CancellationToken();
+
+    public ParallelSearch(
+            PackedGrid grid,
+            VariableOrdering variableOrdering,
+            ValueOrdering valueOrdering,
+            int splitDepth) {
+        mGrid = grid;
+        mVariableOrdering = variableOrdering;
+        mValueOrdering = valueOrdering;
+        mSplitDepth = splitDepth;
+    }
+
+    public void setTranspositionTable(TranspositionTable table) {
+        mDeadRegions = table;
+    }
+
+    // solve() applies rules to the grid before searching, adding what they do to counters
+    public void setInference(Set<Inference.Rule> rules, Inference.Counters counters) {
+        mInferenceRules = rules;
+        mInferenceCounters = counters;
+    }
+
+    // solve() gives up, returning false, soon after the token is cancelled
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    // Enough levels to give every worker a few subtrees to start with
+    public static int getDefaultSplitDepth(ForkJoinPool pool) {
+        return 32 - Integer.numberOfLeadingZeros(pool.getParallelism()) + 2;
+    }
+
+    // Returns true with every tile of the grid solved, or false with the grid unchanged
+    public boolean solve(ForkJoinPool pool) {
+        PackedGrid root = new PackedGrid(mGrid);
+        Inference inference = new Inference(root, mInferenceRules, mInferenceCounters);
+        inference.setCancellationToken(mCancellationToken);
+        if(!inference.apply()) {
+            return false;
+        }
+        int[] all = new int[root.size()];
+        for(int index = 0; index < all.length; ++index) {
+            all[index] = index;
+        }
+        PackedGrid solution = pool.invoke(new SearchTask(root, all, 0, mCancellationToken.newChild()));
+        if(solution == null) {
+            return false;
+        }
+        mGrid.copyFrom(solution);
+        return true;
+    }
+
+    private class SearchTask extends RecursiveTask<PackedGrid> {
+        // propagated grid owned by this task
+        private final PackedGrid mTaskGrid;
+        // tiles this task is responsible for solving
+        private final int[] mRegion;
+        private final int mDepth;
+        private final CancellationToken mCancellationToken;
+
+        SearchTask(PackedGrid grid, int[] region, int depth, CancellationToken cancellationToken) {
+            mTaskGrid = grid;
+            mRegion = region;
+            mDepth = depth;
+            mCancellationToken = cancellationToken;
+        }
+
+        // Returns the grid with every tile of the region solved, or null
+        @Override
+        protected PackedGrid compute() {
+            if(mCancellationToken.isCancelled()) {
+                return null;
+            }
+            if(mDepth >= mSplitDepth) {
+                BacktrackingSearch search = new BacktrackingSearch(mTaskGrid, mVariableOrdering, mValueOrdering);
+                search.setCancellationToken(mCancellationToken);
+                search.setTranspositionTable(mDeadRegions);
+                return search.solve(mRegion) ? mTaskGrid : null;
+            }
+            List<int[]> regions = new Regions(mTaskGrid).find(mRegion, mRegion.length);
+            if(regions.isEmpty()) {
+                return mTaskGrid;
+            }
+            if(regions.size() > 1) {
+                return solveRegions(regions);
+            }
+            return solveAlternatives(regions.get(0));
+        }
+
+        // Every region has to be solved, each on its own copy of the grid
+        private PackedGrid solveRegions(List<int[]> regions) {
+            CancellationToken siblingsToken = mCancellationToken.newChild();
+            List<SearchTask> children = new ArrayList<>();
+            for(int[] region : regions) {
+                children.add(new SearchTask(new PackedGrid(mTaskGrid), region, mDepth, siblingsToken));
+            }
+            forkAllButFirst(children);
+            for(int i = 0; i < children.size(); ++i) {
+                SearchTask child = children.get(i);
+                PackedGrid childSolution = i == 0 ? child.compute() : child.join();
+                if(childSolution == null) {
+                    siblingsToken.cancel();
+                    return null;
+                }
+                mTaskGrid.copyFrom(childSolution, child.mRegion);
+            }
+            return mTaskGrid;
+        }
+
+        // Any one orientation of the branching tile has to lead to a solution
+        private PackedGrid solveAlternatives(int[] region) {
+            int index = mVariableOrdering.select(mTaskGrid, region, region.length);
+            CancellationToken siblingsToken = mCancellationToken.newChild();
+            List<SearchTask> children = new ArrayList<>();
+            int validOrientations = mTaskGrid.getDomain(index);
+            int start = mValueOrdering.getStartOrientation(mTaskGrid, index);
+            for(int i = 0; i < 4; ++i) {
+                int o = (start + i) & 3;
+                if((validOrientations & (1 << o)) == 0) {
+                    continue;
+                }
+                PackedGrid child = new PackedGrid(mTaskGrid);
+                child.setDomain(index, 1 << o);
+                Propagator propagator = new Propagator(child);
+                propagator.enqueueNeighbours(index);
+                if(propagator.propagate()) {
+                    children.add(new SearchTask(child, region, mDepth + 1, siblingsToken));
+                }
+            }
+            forkAllButFirst(children);
+            for(int i = 0; i < children.size(); ++i) {
+                SearchTask child = children.get(i);
+                PackedGrid childSolution = i == 0 ? child.compute() : child.join();
+                if(childSolution != null) {
+                    siblingsToken.cancel();
+                    return childSolution;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Keeps the first, most preferred, task for the current thread and offers the rest for stealing
+    private static void forkAllButFirst(List<SearchTask> tasks) {
+        for(int i = tasks.size() - 1; i > 0; --i) {
+            tasks.get(i).fork();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Races several differently seeded BacktrackingSearches over copies of the grid, one per worker.
+// Each run restarts after a growing number of nodes following the Luby sequence, keeping what it
+// learnt, so one unlucky early choice can't hold a run up for long. The first run to find a
+// solution, or to prove there is none, cancels the others.
+// The first run uses the given orderings unshuffled, so the portfolio is never much slower than
+// the plain search.
+public class PortfolioSolver {
+    // nodes in the shortest run between restarts
+    private static final long RESTART_BASE_NODES = 64;
+
+    private final PackedGrid mGrid;
+    private final VariableOrdering mVariableOrdering;
+    private final ValueOrdering mValueOrdering;
+    private final int mRuns;
+    private Set<Inference.Rule> mInferenceRules = Inference.DEFAULT_RULES;
+    private Inference.Counters mInferenceCounters = new Inference.Counters();
+    private CancellationToken mCancellationToken = new CancellationToken();
+
+    public PortfolioSolver(
+            PackedGrid grid,
+            VariableOrdering variableOrdering,
+            ValueOrdering valueOrdering,
+            int runs) {
+        mGrid = grid;
+        mVariableOrdering = variableOrdering;
+        mValueOrdering = valueOrdering;
+        mRuns = runs;
+    }
+
+    // solve() applies rules to the grid before searching, adding what they do to counters
+    public void setInference(Set<Inference.Rule> rules, Inference.Counters counters) {
+        mInferenceRules = rules;
+        mInferenceCounters = counters;
+    }
+
+    // solve() gives up, returning false, soon after the token is cancelled
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    // Returns true with every tile of the grid solved, or false with the grid unchanged
+    public boolean solve(ForkJoinPool pool) {
+        final PackedGrid root = new PackedGrid(mGrid);
+        Inference inference = new Inference(root, mInferenceRules, mInferenceCounters);
+        inference.setCancellationToken(mCancellationToken);
+        if(!inference.apply()) {
+            return false;
+        }
+        // set to the solved grid, or to root when a run proves there is no solution
+        final AtomicReference<PackedGrid> outcome = new AtomicReference<>();
+        final CancellationToken runsToken = mCancellationToken.newChild();
+        // every run shares what it proves dead with the others
+        final TranspositionTable deadRegions = new TranspositionTable(TranspositionTable.DEFAULT_MEMORY_BYTES);
+        List<ForkJoinTask<?>> runs = new ArrayList<>();
+        for(int run = 0; run < mRuns; ++run) {
+            final PackedGrid grid = new PackedGrid(root);
+            final BacktrackingSearch search = new BacktrackingSearch(grid, mVariableOrdering, mValueOrdering);
+            search.setCancellationToken(runsToken);
+            search.setTranspositionTable(deadRegions);
+            if(run > 0) {
+                search.setRandomSeed(run);
+            }
+            runs.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for(int restart = 0; !runsToken.isCancelled(); ++restart) {
+                        search.setNodeLimit(RESTART_BASE_NODES * CdclSolver.luby(restart));
+                        boolean solved = search.solve();
+                        if(solved || !search.isIncomplete()) {
+                            if(outcome.compareAndSet(null, solved ? grid : root)) {
+                                runsToken.cancel();
+                            }
+                            return;
+                        }
+                    }
+                }
+            }));
+        }
+        for(ForkJoinTask<?> run : runs) {
+            run.join();
+        }
+        PackedGrid solution = outcome.get();
+        if(solution == null || solution == root) {
+            return false;
+        }
+        mGrid.copyFrom(solution);
+        return true;
+    }
+}
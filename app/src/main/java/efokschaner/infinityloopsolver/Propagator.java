@@ -0,0 +1,101 @@
+package efokschaner.infinityloopsolver;
+
+// Arc consistency (AC-3) over the orientation domains of a PackedGrid.
+// Keeps a worklist of tiles whose neighbours changed and only revisits those,
+// so each narrowing costs work proportional to its neighbourhood rather than the grid.
+public class Propagator {
+    private final PackedGrid mGrid;
+    // ring buffer of tile indices waiting to be revised
+    private final int[] mQueue;
+    private final boolean[] mQueued;
+    private int mHead = 0;
+    private int mCount = 0;
+    private int mConflictIndex = -1;
+
+    public Propagator(PackedGrid grid) {
+        mGrid = grid;
+        mQueue = new int[grid.size()];
+        mQueued = new boolean[grid.size()];
+    }
+
+    public void enqueue(int index) {
+        if(!mGrid.isSolved(index)) {
+            add(index);
+        }
+    }
+
+    // Solved tiles are included so that tiles which were recognised or fixed as solved
+    // are still checked against each other
+    public void enqueueAll() {
+        for(int index = 0; index < mGrid.size(); ++index) {
+            add(index);
+        }
+    }
+
+    // The tile at index is never revised, so its neighbours only ever see what its domain allows now.
+    // Must be called before anything is enqueued.
+    public void freeze(int index) {
+        // a tile marked queued without being in the queue is never added to it
+        mQueued[index] = true;
+    }
+
+    private void add(int index) {
+        if(!mQueued[index]) {
+            mQueued[index] = true;
+            mQueue[(mHead + mCount) % mQueue.length] = index;
+            ++mCount;
+        }
+    }
+
+    public void enqueueNeighbours(int index) {
+        for(int direction : Direction.ALL) {
+            int n = mGrid.neighbour(index, direction);
+            if(n >= 0) {
+                enqueue(n);
+            }
+        }
+    }
+
+    public void clear() {
+        while(mCount > 0) {
+            mQueued[mQueue[mHead]] = false;
+            mHead = (mHead + 1) % mQueue.length;
+            --mCount;
+        }
+    }
+
+    // The tile left without a legal orientation by the last failed propagate()
+    public int getConflictIndex() {
+        return mConflictIndex;
+    }
+
+    // Narrows domains until no queued tile changes.
+    // Returns false if some tile is left without any legal orientation.
+    public boolean propagate() {
+        while(mCount > 0) {
+            int index = mQueue[mHead];
+            mHead = (mHead + 1) % mQueue.length;
+            --mCount;
+            mQueued[index] = false;
+
+            int domain = mGrid.getDomain(index);
+            int supported = mGrid.getSupportedOrientations(index);
+            if(supported == domain) {
+                continue;
+            }
+            if(supported == 0) {
+                mConflictIndex = index;
+                clear();
+                return false;
+            }
+            int mayBefore = mGrid.getMayConnect(index);
+            int mustBefore = mGrid.getMustConnect(index);
+            mGrid.setDomain(index, supported);
+            // Neighbours only see this tile through which directions it may and must connect
+            if(mGrid.getMayConnect(index) != mayBefore || mGrid.getMustConnect(index) != mustBefore) {
+                enqueueNeighbours(index);
+            }
+        }
+        return true;
+    }
+}
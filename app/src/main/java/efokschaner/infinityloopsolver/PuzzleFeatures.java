@@ -0,0 +1,56 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.List;
+
+// Cheap description of a puzzle used to choose a SolverEngine, measured after propagation
+public class PuzzleFeatures {
+    public final int cols;
+    public final int rows;
+    // false when propagation alone already proves the puzzle unsolvable
+    public final boolean consistent;
+    // tiles left with more than one legal orientation
+    public final int ambiguousTiles;
+    public final int regionCount;
+    public final int largestRegion;
+
+    private PuzzleFeatures(int cols, int rows, boolean consistent, int ambiguousTiles, int regionCount, int largestRegion) {
+        this.cols = cols;
+        this.rows = rows;
+        this.consistent = consistent;
+        this.ambiguousTiles = ambiguousTiles;
+        this.regionCount = regionCount;
+        this.largestRegion = largestRegion;
+    }
+
+    public static PuzzleFeatures extract(PackedGrid grid) {
+        PackedGrid propagated = new PackedGrid(grid);
+        Propagator propagator = new Propagator(propagated);
+        propagator.enqueueAll();
+        if(!propagator.propagate()) {
+            return new PuzzleFeatures(grid.getCols(), grid.getRows(), false, 0, 0, 0);
+        }
+        List<int[]> regions = new Regions(propagated).find();
+        int ambiguousTiles = 0;
+        int largestRegion = 0;
+        for(int[] region : regions) {
+            ambiguousTiles += region.length;
+            largestRegion = Math.max(largestRegion, region.length);
+        }
+        return new PuzzleFeatures(grid.getCols(), grid.getRows(), true, ambiguousTiles, regions.size(), largestRegion);
+    }
+
+    public int getTiles() {
+        return cols * rows;
+    }
+
+    public double getAmbiguousFraction() {
+        return (double) ambiguousTiles / getTiles();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%sx%s, %s ambiguous tiles in %s regions (largest %s)%s",
+                cols, rows, ambiguousTiles, regionCount, largestRegion, consistent ? "" : ", inconsistent");
+    }
+}
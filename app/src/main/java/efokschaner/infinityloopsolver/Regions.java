@@ -0,0 +1,85 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Splits unsolved tiles into regions connected through other unsolved tiles.
+// Solved tiles have a fixed orientation, so no choice made in one region can affect another
+// and each region can be solved on its own.
+// Whether a region can be solved depends only on which tiles it has and on which sides the solved
+// tiles around it connect into it, so getKey() hashes exactly that.
+public class Regions {
+    private final PackedGrid mGrid;
+    // mVisited[index] == mGeneration marks tiles already assigned a region in this call
+    private final int[] mVisited;
+    private int mGeneration = 0;
+    private final int[] mQueue;
+
+    public Regions(PackedGrid grid) {
+        mGrid = grid;
+        mVisited = new int[grid.size()];
+        mQueue = new int[grid.size()];
+    }
+
+    public List<int[]> find() {
+        int[] all = new int[mGrid.size()];
+        for(int index = 0; index < all.length; ++index) {
+            all[index] = index;
+        }
+        return find(all, all.length);
+    }
+
+    // Returns the regions of the unsolved tiles among the first count entries of cells,
+    // each sorted in column-major order.
+    // cells must contain every unsolved tile reachable from its unsolved tiles.
+    public List<int[]> find(int[] cells, int count) {
+        if(++mGeneration == 0) {
+            Arrays.fill(mVisited, 0);
+            mGeneration = 1;
+        }
+        List<int[]> regions = new ArrayList<>();
+        for(int i = 0; i < count; ++i) {
+            int start = cells[i];
+            if(mGrid.isSolved(start) || mVisited[start] == mGeneration) {
+                continue;
+            }
+            mVisited[start] = mGeneration;
+            mQueue[0] = start;
+            int size = 1;
+            for(int head = 0; head < size; ++head) {
+                int index = mQueue[head];
+                for(int direction : Direction.ALL) {
+                    int n = mGrid.neighbour(index, direction);
+                    if(n >= 0 && !mGrid.isSolved(n) && mVisited[n] != mGeneration) {
+                        mVisited[n] = mGeneration;
+                        mQueue[size++] = n;
+                    }
+                }
+            }
+            int[] region = Arrays.copyOf(mQueue, size);
+            Arrays.sort(region);
+            regions.add(region);
+        }
+        return regions;
+    }
+
+    // Zobrist key of the region as it stands: an XOR of one random value per tile in it and one per
+    // (tile, side, whether the solved neighbour or border on that side connects into the tile).
+    public long getKey(int[] region) {
+        long key = 0;
+        for(int index : region) {
+            long tileKey = (long) index * 16;
+            key ^= TranspositionTable.mix(tileKey);
+            for(int side = 0; side < 4; ++side) {
+                int direction = Direction.ALL[side];
+                int n = mGrid.neighbour(index, direction);
+                if(n < 0 || mGrid.isSolved(n)) {
+                    boolean connects = n >= 0 && (mGrid.getConnections(n) & Direction.opposite(direction)) != 0;
+                    key ^= TranspositionTable.mix(tileKey + 8 + side * 2 + (connects ? 1 : 0));
+                }
+            }
+        }
+        return key;
+    }
+}
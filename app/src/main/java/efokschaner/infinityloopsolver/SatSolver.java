@@ -0,0 +1,144 @@
+package efokschaner.infinityloopsolver;
+
+// Solves a grid by encoding it as CNF for CdclSolver.
+// Each orientation left in the domain of an unsolved tile gets a variable, exactly one of which
+// is true per tile. Each edge between two tiles gets a variable saying whether a pipe crosses it,
+// and every orientation implies the edge value it needs on each side, which is the same
+// agreement rule as PackedGrid.getSupportedOrientations().
+public class SatSolver {
+    private final PackedGrid mGrid;
+    private CancellationToken mCancellationToken = new CancellationToken();
+    // variable of each (index * 4 + orientation), 0 when that orientation is not in the domain
+    private int[] mOrientationVars;
+    private int mNumVars = 0;
+
+    public SatSolver(PackedGrid grid) {
+        mGrid = grid;
+    }
+
+    // solve() gives up, returning false, soon after the token is cancelled
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    // Returns true with every tile solved, or false with the grid as it was before the call
+    public boolean solve() {
+        int startOfSearch = mGrid.getTrailSize();
+        // Propagating first keeps the encoding down to the tiles that are still ambiguous
+        Propagator propagator = new Propagator(mGrid);
+        propagator.enqueueAll();
+        if(!propagator.propagate()) {
+            mGrid.undo(startOfSearch);
+            return false;
+        }
+
+        final int size = mGrid.size();
+        mOrientationVars = new int[size * 4];
+        for(int index = 0; index < size; ++index) {
+            if(!mGrid.isSolved(index)) {
+                int domain = mGrid.getDomain(index);
+                for(int o = 0; o < 4; ++o) {
+                    if((domain & (1 << o)) != 0) {
+                        mOrientationVars[index * 4 + o] = ++mNumVars;
+                    }
+                }
+            }
+        }
+        // one edge variable to the right of and below every tile
+        final int rightEdgeBase = mNumVars;
+        final int downEdgeBase = rightEdgeBase + size;
+        mNumVars += 2 * size;
+
+        CdclSolver solver = new CdclSolver(mNumVars);
+        solver.setCancellationToken(mCancellationToken);
+        for(int index = 0; index < size; ++index) {
+            addTileClauses(solver, index);
+            int right = mGrid.neighbour(index, Direction.RIGHT);
+            int down = mGrid.neighbour(index, Direction.DOWN);
+            if(right >= 0) {
+                int edge = rightEdgeBase + index + 1;
+                addEdgeClauses(solver, index, Direction.RIGHT, edge);
+                addEdgeClauses(solver, right, Direction.LEFT, edge);
+            }
+            if(down >= 0) {
+                int edge = downEdgeBase + index + 1;
+                addEdgeClauses(solver, index, Direction.DOWN, edge);
+                addEdgeClauses(solver, down, Direction.UP, edge);
+            }
+            // Nothing may connect off the grid
+            for(int direction : Direction.ALL) {
+                if(mGrid.neighbour(index, direction) < 0) {
+                    addEdgeClauses(solver, index, direction, 0);
+                }
+            }
+        }
+        if(!solver.solve()) {
+            mGrid.undo(startOfSearch);
+            return false;
+        }
+        for(int index = 0; index < size; ++index) {
+            if(!mGrid.isSolved(index)) {
+                for(int o = 0; o < 4; ++o) {
+                    int var = mOrientationVars[index * 4 + o];
+                    if(var != 0 && solver.getValue(var)) {
+                        mGrid.setDomain(index, 1 << o);
+                        break;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // Exactly one orientation per unsolved tile
+    private void addTileClauses(CdclSolver solver, int index) {
+        if(mGrid.isSolved(index)) {
+            return;
+        }
+        int[] vars = new int[Integer.bitCount(mGrid.getDomain(index))];
+        int count = 0;
+        for(int o = 0; o < 4; ++o) {
+            int var = mOrientationVars[index * 4 + o];
+            if(var != 0) {
+                vars[count++] = var;
+            }
+        }
+        solver.addClause(vars);
+        for(int i = 0; i < count; ++i) {
+            for(int j = i + 1; j < count; ++j) {
+                solver.addClause(-vars[i], -vars[j]);
+            }
+        }
+    }
+
+    // Ties the orientation of the tile at index to the edge on its given side.
+    // edge 0 stands for the border, which can never be crossed.
+    private void addEdgeClauses(CdclSolver solver, int index, int direction, int edge) {
+        if(mGrid.isSolved(index)) {
+            boolean connects = (mGrid.getConnections(index) & direction) != 0;
+            if(edge == 0) {
+                if(connects) {
+                    solver.addClause();
+                }
+            } else {
+                solver.addClause(connects ? edge : -edge);
+            }
+            return;
+        }
+        TileType type = mGrid.getType(index);
+        for(int o = 0; o < 4; ++o) {
+            int var = mOrientationVars[index * 4 + o];
+            if(var == 0) {
+                continue;
+            }
+            boolean connects = (PackedGrid.getConnections(type, o) & direction) != 0;
+            if(edge == 0) {
+                if(connects) {
+                    solver.addClause(-var);
+                }
+            } else {
+                solver.addClause(-var, connects ? edge : -edge);
+            }
+        }
+    }
+}
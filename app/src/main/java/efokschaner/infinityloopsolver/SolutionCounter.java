@@ -0,0 +1,167 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Counts the solutions of a grid, up to a limit.
+// Solutions of independent regions combine by multiplication, so each region is counted on its
+// own and regions split further as tiles get decided. The count of a region only depends on its
+// tiles and on how the solved tiles around it connect into it, so counts are remembered by
+// Regions key and a region which shows up again in another branch isn't counted twice.
+// Two solutions differ when some tile connects differently, orientations which look the same
+// count once.
+// The count runs on an explicit stack of frames rather than the Java stack, every frame decides a
+// tile so the grid size bounds its depth.
+public class SolutionCounter {
+    // A region being counted: it decides one tile, trying its orientations in turn, and after each
+    // decision counts the parts the rest of the region splits into, one child frame each
+    private static class Frame {
+        int[] region;
+        long key;
+        int index;
+        int domain;
+        // next orientation to try
+        int o;
+        long count;
+        // trail size before the decision being explored
+        int mark;
+        // parts left by the decision being explored, or null between decisions
+        List<int[]> parts;
+        // the part being counted by the child frame, and the product of the counts of those before
+        int part;
+        long product;
+    }
+
+    private final PackedGrid mGrid;
+    private final Propagator mPropagator;
+    private final Regions mRegions;
+    // counts by Regions key, valid for mLimit
+    private final Map<Long, Long> mCounts = new HashMap<>();
+    private long mLimit;
+    private final Frame[] mFrames;
+
+    public SolutionCounter(PackedGrid grid) {
+        mGrid = grid;
+        mPropagator = new Propagator(grid);
+        mRegions = new Regions(grid);
+        mFrames = new Frame[grid.size()];
+    }
+
+    // Returns the number of solutions, or limit when there are at least that many.
+    // count(2) == 1 means the solution is unique. Leaves the grid as it was.
+    public long count(long limit) {
+        if(limit != mLimit) {
+            mCounts.clear();
+            mLimit = limit;
+        }
+        int startOfSearch = mGrid.getTrailSize();
+        mPropagator.enqueueAll();
+        long count = 0;
+        if(mPropagator.propagate()) {
+            count = countParts(mRegions.find());
+        }
+        mGrid.undo(startOfSearch);
+        return count;
+    }
+
+    private long countParts(List<int[]> parts) {
+        long count = 1;
+        for(int[] part : parts) {
+            long partCount = countRegion(part);
+            if(partCount == 0) {
+                return 0;
+            }
+            count = saturatingMultiply(count, partCount);
+        }
+        return count;
+    }
+
+    private long countRegion(int[] region) {
+        Long known = mCounts.get(mRegions.getKey(region));
+        if(known != null) {
+            return known;
+        }
+        open(0, region);
+        int depth = 1;
+        // what the frame above the top one counted, once it is done
+        long result = -1;
+        while(true) {
+            Frame frame = mFrames[depth - 1];
+            if(result >= 0) {
+                // A part of the decision being explored is counted
+                frame.product = result == 0 ? 0 : saturatingMultiply(frame.product, result);
+                ++frame.part;
+                result = -1;
+            } else if(frame.parts == null && !decideNext(frame)) {
+                // Every orientation of the tile is done
+                mCounts.put(frame.key, frame.count);
+                result = frame.count;
+                frame.region = null;
+                if(--depth == 0) {
+                    return result;
+                }
+                continue;
+            }
+            if(frame.parts == null) {
+                continue;
+            }
+            if(frame.product != 0 && frame.part < frame.parts.size()) {
+                int[] part = frame.parts.get(frame.part);
+                known = mCounts.get(mRegions.getKey(part));
+                if(known != null) {
+                    result = known;
+                } else {
+                    open(depth, part);
+                    ++depth;
+                }
+                continue;
+            }
+            // Every part is counted, or one has no solution
+            frame.count = Math.min(mLimit, frame.count + frame.product);
+            mGrid.undo(frame.mark);
+            frame.parts = null;
+        }
+    }
+
+    private void open(int depth, int[] region) {
+        if(mFrames[depth] == null) {
+            mFrames[depth] = new Frame();
+        }
+        Frame frame = mFrames[depth];
+        frame.region = region;
+        frame.key = mRegions.getKey(region);
+        frame.index = VariableOrdering.MINIMUM_REMAINING_VALUES.select(mGrid, region, region.length);
+        frame.domain = mGrid.getDomain(frame.index);
+        frame.o = 0;
+        frame.count = 0;
+        frame.parts = null;
+    }
+
+    // Decides the frame's tile on its next orientation which propagates, splitting the rest of the
+    // region into parts. Returns false, with the grid as it was, when no orientation is left or
+    // the count has reached the limit.
+    private boolean decideNext(Frame frame) {
+        while(frame.o < 4 && frame.count < mLimit) {
+            int o = frame.o++;
+            if((frame.domain & (1 << o)) == 0) {
+                continue;
+            }
+            frame.mark = mGrid.getTrailSize();
+            mGrid.setDomain(frame.index, 1 << o);
+            mPropagator.enqueueNeighbours(frame.index);
+            if(mPropagator.propagate()) {
+                frame.parts = mRegions.find(frame.region, frame.region.length);
+                frame.part = 0;
+                frame.product = 1;
+                return true;
+            }
+            mGrid.undo(frame.mark);
+        }
+        return false;
+    }
+
+    private long saturatingMultiply(long a, long b) {
+        return a > mLimit / b ? mLimit : Math.min(mLimit, a * b);
+    }
+}
@@ -0,0 +1,35 @@
+package efokschaner.infinityloopsolver;
+
+// What GameState.getSolution() managed within its budget
+public class SolveResult {
+    public enum Status {
+        // every tile is solved and the plan completes the puzzle
+        SOLVED,
+        // the search ran out of time, the plan only turns the tiles propagation alone could fix
+        PARTIAL,
+        // the search ran out of time before fixing a single ambiguous tile
+        GAVE_UP,
+    }
+
+    public final Status status;
+    public final ClickPlan plan;
+    // tiles whose orientation is certain, out of getTiles()
+    public final int fixedTiles;
+    private final int mTiles;
+
+    SolveResult(Status status, ClickPlan plan, int fixedTiles, int tiles) {
+        this.status = status;
+        this.plan = plan;
+        this.fixedTiles = fixedTiles;
+        mTiles = tiles;
+    }
+
+    public int getTiles() {
+        return mTiles;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %s of %s tiles fixed, %s taps", status, fixedTiles, mTiles, plan.getTapCount());
+    }
+}
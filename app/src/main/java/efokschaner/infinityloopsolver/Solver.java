@@ -15,24 +15,43 @@ import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 import android.view.accessibility.AccessibilityWindowInfo;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
 
 public class Solver {
     private static final String TAG = Solver.class.getSimpleName();
+    // Longest a single level may be searched for before settling for a partial solution
+    private static final long SOLVE_TIME_LIMIT_MS = 5000;
+    // How long the actuation loop waits for the search to come up with more taps
+    private static final long TAP_POLL_INTERVAL_MS = 5;
+    // Times in a row a board is looked at again after an attempt which didn't complete it
+    private static final int MAX_RETRIES = 3;
 
     private final UiAutomation mUiAutomation;
     private final ImageProcessor mImageProcessor;
     private Thread mSolverThread;
+    // cancels the searches of mSolverThread
+    private CancellationToken mSolverCancellationToken;
+    // runs the searches of mSolverThread, shut down with it
+    private ForkJoinPool mPool;
     private boolean mNextRunIsOnce;
 
     public final ObservableBoolean isEnabled = new ObservableBoolean(false);
     public final ObservableField<String> lastError = new ObservableField<>();
 
-    private void startOrStopSolverThread() {
+    private synchronized void startOrStopSolverThread() {
         if(isEnabled.get() && isInfinityLoopReady(mUiAutomation.getWindows())) {
             if(mSolverThread == null) {
-                mSolverThread = new Thread(getSolverFunc(mNextRunIsOnce));
+                mSolverCancellationToken = new CancellationToken();
+                mPool = new ForkJoinPool();
+                mSolverThread = new Thread(getSolverFunc(mNextRunIsOnce, mSolverCancellationToken, mPool));
                 mNextRunIsOnce = false;
                 mSolverThread.start();
             }
@@ -65,17 +84,28 @@ public class Solver {
         });
     }
 
-    private void stopSolver() {
+    // Doesn't wait for the solver thread, which stops at its next cancellation check
+    private synchronized void stopSolver() {
         if(mSolverThread != null) {
             Log.d(TAG, "Shutting down");
+            mSolverCancellationToken.cancel();
             mSolverThread.interrupt();
-            try {
-                mSolverThread.join();
-            } catch (InterruptedException e) {
-                // ignore
-            } finally {
-                mSolverThread = null;
-            }
+            mPool.shutdownNow();
+            mSolverThread = null;
+            mSolverCancellationToken = null;
+            mPool = null;
+        }
+    }
+
+    // Only the current solver thread may disable the solver when it finishes,
+    // a stopped one finishing late must not disable its replacement
+    private synchronized void onSolverThreadFinished() {
+        if(mSolverThread == Thread.currentThread()) {
+            mPool.shutdown();
+            mSolverThread = null;
+            mSolverCancellationToken = null;
+            mPool = null;
+            isEnabled.set(false);
         }
     }
 
@@ -139,44 +169,163 @@ public class Solver {
         motionDown.recycle();
     }
 
-    private Runnable getSolverFunc(final boolean runOnce) {
+    // Solves on pool while injecting the taps the search is already sure of.
+    // previous, the last state of the same board solved or null, lets a retry reuse its solution.
+    // A retry only searches around the tiles which changed, so its taps come all at once when
+    // it is done rather than while it searches.
+    // Returns null if the puzzle has no solution. Throws ExecutionException if the engine fails.
+    private SolveResult solveAndAct(
+            final GameState gameState,
+            final GameState previous,
+            final SolverEngine engine,
+            final ForkJoinPool pool,
+            final CancellationToken cancellationToken) throws InterruptedException, ExecutionException {
+        final CancellationToken budget = cancellationToken.newChild();
+        budget.cancelAfter(SOLVE_TIME_LIMIT_MS);
+        final ConcurrentLinkedQueue<ClickPlan> taps = new ConcurrentLinkedQueue<>();
+        Callable<SolveResult> solve = new Callable<SolveResult>() {
+            @Override
+            public SolveResult call() {
+                try {
+                    if(previous != null) {
+                        SolveResult result = gameState.getSolution(
+                                previous,
+                                gameState.getChangedCells(previous),
+                                engine,
+                                budget);
+                        taps.add(result.plan);
+                        return result;
+                    }
+                    return gameState.getSolution(engine, budget, taps);
+                } catch (GameState.InvalidBoardError e) {
+                    Log.d(TAG, String.format("%s, suspicious tiles %s", e.getMessage(), Arrays.toString(e.suspiciousCells)));
+                    return null;
+                } catch (GameState.UnsolvableError e) {
+                    return null;
+                }
+            }
+        };
+        ForkJoinTask<SolveResult> solving;
+        try {
+            solving = pool.submit(solve);
+        } catch (RejectedExecutionException e) {
+            // stopSolver() shut the pool down
+            throw new InterruptedException();
+        }
+        Log.d(TAG, "Acting");
+        try {
+            while(!solving.isDone() || !taps.isEmpty()) {
+                if(Thread.interrupted() || cancellationToken.isCancelled()) {
+                    throw new InterruptedException();
+                }
+                ClickPlan plan = taps.poll();
+                if(plan == null) {
+                    Thread.sleep(TAP_POLL_INTERVAL_MS);
+                } else {
+                    act(plan, gameState.getGridInfo(), cancellationToken);
+                }
+            }
+            return solving.get();
+        } finally {
+            budget.cancel();
+        }
+    }
+
+    // Taps out plan, working out where each tile is on screen only as it is tapped
+    private void act(
+            ClickPlan plan,
+            GridInfo gridInfo,
+            CancellationToken cancellationToken) throws InterruptedException {
+        for(int step = 0; step < plan.size(); ++step) {
+            int x = gridInfo.getClickX(plan.getCol(step));
+            int y = gridInfo.getClickY(plan.getRow(step));
+            for(int i = 0; i < plan.getTaps(step); ++i) {
+                if(Thread.interrupted() || cancellationToken.isCancelled()) {
+                    throw new InterruptedException();
+                }
+                injectClickEvent(x, y, mUiAutomation);
+            }
+        }
+    }
+
+    // Screenshots and recognises the board, null if there is none on screen
+    private GameState interpret() {
+        Bitmap b = mUiAutomation.takeScreenshot();
+        try {
+            return mImageProcessor.getGameStateFromImage(b);
+        } finally {
+            b.recycle();
+        }
+    }
+
+    private Runnable getSolverFunc(
+            final boolean runOnce,
+            final CancellationToken cancellationToken,
+            final ForkJoinPool pool) {
         return new Runnable() {
             @Override
             public void run() {
+                final SolverEngines solverEngines = SolverEngines.createDefault(pool);
+                // Whether the board on screen is one the last attempt didn't complete
+                boolean retrying = false;
+                // While retrying, the last state of the board solved, which the retry can start from
+                GameState lastSolved = null;
+                int retries = 0;
                 try {
                     mUiAutomation.waitForIdle(1000, 10000);
-                    while(!Thread.interrupted()) {
-                        // click to complete the level
-                        Log.d(TAG, "Completing level");
-                        injectClickEvent(20, 20, mUiAutomation);
-                        Thread.sleep(3200);
+                    while(!Thread.interrupted() && !cancellationToken.isCancelled()) {
+                        if(!retrying) {
+                            // click to complete the level
+                            Log.d(TAG, "Completing level");
+                            injectClickEvent(20, 20, mUiAutomation);
+                            Thread.sleep(3200);
+                        }
                         Log.d(TAG, "Interpreting");
-                        Bitmap b = mUiAutomation.takeScreenshot();
-                        try{
-                            final GameState gameStateFromImage = mImageProcessor.getGameStateFromImage(b);
-                            if(gameStateFromImage != null) {
-                                Log.d(TAG, "Solving");
-                                final List<ClickAction> actions = gameStateFromImage.getSolution();
-                                if(!Thread.interrupted()) {
-                                    Log.d(TAG, "Acting");
-                                    for(ClickAction action : actions) {
-                                        injectClickEvent(action.xpos, action.ypos, mUiAutomation);
-                                    }
-                                    Thread.sleep(1500);
+                        final GameState gameStateFromImage = interpret();
+                        if(gameStateFromImage != null) {
+                            final PuzzleFeatures features = gameStateFromImage.getFeatures();
+                            final SolverEngine engine = solverEngines.select(features);
+                            Log.d(TAG, String.format("Solving %s with %s", features, engine.getName()));
+                            final SolveResult result = solveAndAct(gameStateFromImage, lastSolved, engine, pool, cancellationToken);
+                            if(result != null && result.status == SolveResult.Status.SOLVED) {
+                                Log.d(TAG, String.format("Solved %s", result));
+                                Thread.sleep(1500);
+                                // A tap which misfired leaves the board incomplete, retry it from this solution
+                                final GameState check = interpret();
+                                retrying = check != null && !check.isComplete() && retries < MAX_RETRIES;
+                            } else {
+                                // The board may have been misrecognised, or the search ran out of time
+                                // with only some of it solved, so look at it again
+                                Log.d(TAG, String.format("Not solved %s", result));
+                                if(retries == MAX_RETRIES) {
+                                    throw new GameState.UnsolvableError();
+                                }
+                                retrying = true;
+                            }
+                            if(retrying) {
+                                ++retries;
+                                if(result != null && result.status == SolveResult.Status.SOLVED) {
+                                    lastSolved = gameStateFromImage;
                                 }
+                            } else {
+                                retries = 0;
+                                lastSolved = null;
                             }
-                        } finally {
-                            b.recycle();
+                        } else {
+                            // Nothing to retry, carry on as between levels
+                            retrying = false;
+                            retries = 0;
+                            lastSolved = null;
                         }
-                        if(runOnce) {
+                        if(runOnce && !retrying) {
                             break;
                         }
                     }
-                } catch (TimeoutException | InterruptedException | GameState.UnsolvableError e) {
+                } catch (TimeoutException | InterruptedException | ExecutionException | GameState.UnsolvableError e) {
                     e.printStackTrace();
                     lastError.set(Log.getStackTraceString(e));
                 } finally {
-                    isEnabled.set(false);
+                    onSolverThreadFinished();
                 }
             }
         };
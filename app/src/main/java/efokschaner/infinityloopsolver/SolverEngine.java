@@ -0,0 +1,16 @@
+package efokschaner.infinityloopsolver;
+
+// An algorithm which can solve a PackedGrid, see SolverEngines for the available ones
+public interface SolverEngine {
+    String getName();
+
+    // Whether the engine can handle puzzles like this at all
+    boolean canSolve(PuzzleFeatures features);
+
+    // Rough relative cost of solving puzzles like this, only meaningful compared to other engines
+    double estimateCost(PuzzleFeatures features);
+
+    // Returns true with every tile solved, or false with the grid as it was before the call.
+    // Gives up, returning false, soon after cancellationToken is cancelled.
+    boolean solve(PackedGrid grid, CancellationToken cancellationToken);
+}
@@ -0,0 +1,325 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+// Registry of SolverEngines which picks the one expected to be fastest for each puzzle.
+// The cost estimates are coarse models of how each engine scales and are only tuned
+// to rank the engines against each other.
+public class SolverEngines {
+    public static final SolverEngine BACKTRACKING = new BacktrackingEngine(
+            VariableOrdering.MINIMUM_REMAINING_VALUES,
+            ValueOrdering.FEWEST_TAPS);
+
+    public static final SolverEngine FRONTIER = new SolverEngine() {
+        @Override
+        public String getName() {
+            return "frontier";
+        }
+
+        @Override
+        public boolean canSolve(PuzzleFeatures features) {
+            return Math.min(features.cols, features.rows) <= FrontierSolver.MAX_WIDTH;
+        }
+
+        @Override
+        public double estimateCost(PuzzleFeatures features) {
+            // every tile visits every frontier state
+            return features.getTiles() * (double) (2 << Math.min(features.cols, features.rows)) / 4;
+        }
+
+        @Override
+        public boolean solve(PackedGrid grid, CancellationToken cancellationToken) {
+            FrontierSolver solver = new FrontierSolver(grid);
+            solver.setCancellationToken(cancellationToken);
+            return solver.solve();
+        }
+    };
+
+    public static final SolverEngine SAT = new SolverEngine() {
+        @Override
+        public String getName() {
+            return "sat";
+        }
+
+        @Override
+        public boolean canSolve(PuzzleFeatures features) {
+            return true;
+        }
+
+        @Override
+        public double estimateCost(PuzzleFeatures features) {
+            // building the encoding is expensive but clause learning keeps the search from blowing up
+            return 8.0 * features.getTiles() + 64.0 * features.ambiguousTiles;
+        }
+
+        @Override
+        public boolean solve(PackedGrid grid, CancellationToken cancellationToken) {
+            SatSolver solver = new SatSolver(grid);
+            solver.setCancellationToken(cancellationToken);
+            return solver.solve();
+        }
+    };
+
+    // Finds the solution needing the fewest taps rather than the first one. Not registered with the
+    // default engines since it has to search the whole tree of every ambiguous region.
+    public static final SolverEngine MINIMUM_TAPS = new SolverEngine() {
+        @Override
+        public String getName() {
+            return "minimum taps";
+        }
+
+        @Override
+        public boolean canSolve(PuzzleFeatures features) {
+            return true;
+        }
+
+        @Override
+        public double estimateCost(PuzzleFeatures features) {
+            // the bound prunes well but there is no stopping at the first solution
+            return features.getTiles() + estimateRegionSearch(features, 8.0);
+        }
+
+        @Override
+        public boolean solve(PackedGrid grid, CancellationToken cancellationToken) {
+            TapOptimizer optimizer = new TapOptimizer(grid);
+            optimizer.setCancellationToken(cancellationToken);
+            return optimizer.solve();
+        }
+    };
+
+    private static final SolverEngines SEQUENTIAL = new SolverEngines();
+
+    static {
+        SEQUENTIAL.register(BACKTRACKING);
+        SEQUENTIAL.register(FRONTIER);
+        SEQUENTIAL.register(SAT);
+    }
+
+    // The engines which run on the calling thread only
+    public static SolverEngines getSequential() {
+        return SEQUENTIAL;
+    }
+
+    // All the engines, with the parallel ones running on pool
+    public static SolverEngines createDefault(ForkJoinPool pool) {
+        SolverEngines engines = new SolverEngines();
+        engines.register(BACKTRACKING);
+        engines.register(FRONTIER);
+        engines.register(SAT);
+        engines.register(new ParallelEngine(pool));
+        engines.register(new PortfolioEngine(pool));
+        return engines;
+    }
+
+    private final List<SolverEngine> mEngines = new ArrayList<>();
+
+    public void register(SolverEngine engine) {
+        mEngines.add(engine);
+    }
+
+    public SolverEngine select(PuzzleFeatures features) {
+        SolverEngine best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for(SolverEngine engine : mEngines) {
+            if(engine.canSolve(features)) {
+                double cost = engine.estimateCost(features);
+                if(best == null || cost < bestCost) {
+                    best = engine;
+                    bestCost = cost;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Expected backtracking cost: propagation over the grid plus a search which grows
+    // exponentially, but slowly thanks to propagation, in the size of each region
+    private static double estimateSearchCost(PuzzleFeatures features) {
+        return features.getTiles() + estimateRegionSearch(features, 16.0);
+    }
+
+    // Cost of searching each region on its own when the work per tile doubles every doublingTiles
+    // tiles in the region. Only the largest region's size is known, the other regions are taken to
+    // share the rest of the ambiguous tiles evenly.
+    private static double estimateRegionSearch(PuzzleFeatures features, double doublingTiles) {
+        if(features.regionCount == 0) {
+            return 0;
+        }
+        double search = features.largestRegion * Math.pow(2, Math.min(features.largestRegion / doublingTiles, 60));
+        int otherTiles = features.ambiguousTiles - features.largestRegion;
+        if(features.regionCount > 1) {
+            double otherRegion = (double) otherTiles / (features.regionCount - 1);
+            search += otherTiles * Math.pow(2, Math.min(otherRegion / doublingTiles, 60));
+        }
+        return search;
+    }
+
+    public static class BacktrackingEngine implements SolverEngine {
+        private final VariableOrdering mVariableOrdering;
+        private final ValueOrdering mValueOrdering;
+        private final long mTranspositionMemoryBytes;
+        private final Set<Inference.Rule> mInferenceRules;
+        private final Inference.Counters mInferenceCounters = new Inference.Counters();
+
+        public BacktrackingEngine(VariableOrdering variableOrdering, ValueOrdering valueOrdering) {
+            this(variableOrdering, valueOrdering, TranspositionTable.DEFAULT_MEMORY_BYTES);
+        }
+
+        // Each solve gets a transposition table of transpositionMemoryBytes, none when it is 0
+        public BacktrackingEngine(
+                VariableOrdering variableOrdering,
+                ValueOrdering valueOrdering,
+                long transpositionMemoryBytes) {
+            this(variableOrdering, valueOrdering, transpositionMemoryBytes, Inference.DEFAULT_RULES);
+        }
+
+        // Each solve applies inferenceRules before searching
+        public BacktrackingEngine(
+                VariableOrdering variableOrdering,
+                ValueOrdering valueOrdering,
+                long transpositionMemoryBytes,
+                Set<Inference.Rule> inferenceRules) {
+            mVariableOrdering = variableOrdering;
+            mValueOrdering = valueOrdering;
+            mTranspositionMemoryBytes = transpositionMemoryBytes;
+            mInferenceRules = inferenceRules;
+        }
+
+        // What the inference rules did over every solve so far
+        public Inference.Counters getInferenceCounters() {
+            return mInferenceCounters;
+        }
+
+        @Override
+        public String getName() {
+            return "backtracking";
+        }
+
+        @Override
+        public boolean canSolve(PuzzleFeatures features) {
+            return true;
+        }
+
+        @Override
+        public double estimateCost(PuzzleFeatures features) {
+            return estimateSearchCost(features);
+        }
+
+        @Override
+        public boolean solve(PackedGrid grid, CancellationToken cancellationToken) {
+            BacktrackingSearch search = new BacktrackingSearch(grid, mVariableOrdering, mValueOrdering);
+            Inference inference = new Inference(grid, mInferenceRules, mInferenceCounters);
+            inference.setCancellationToken(cancellationToken);
+            search.setInference(inference);
+            search.setCancellationToken(cancellationToken);
+            if(mTranspositionMemoryBytes > 0) {
+                search.setTranspositionTable(new TranspositionTable(mTranspositionMemoryBytes));
+            }
+            return search.solve();
+        }
+    }
+
+    public static class ParallelEngine implements SolverEngine {
+        private final ForkJoinPool mPool;
+        private final Set<Inference.Rule> mInferenceRules;
+        private final Inference.Counters mInferenceCounters = new Inference.Counters();
+
+        public ParallelEngine(ForkJoinPool pool) {
+            this(pool, Inference.DEFAULT_RULES);
+        }
+
+        // Each solve applies inferenceRules before searching
+        public ParallelEngine(ForkJoinPool pool, Set<Inference.Rule> inferenceRules) {
+            mPool = pool;
+            mInferenceRules = inferenceRules;
+        }
+
+        // What the inference rules did over every solve so far
+        public Inference.Counters getInferenceCounters() {
+            return mInferenceCounters;
+        }
+
+        @Override
+        public String getName() {
+            return "parallel";
+        }
+
+        @Override
+        public boolean canSolve(PuzzleFeatures features) {
+            return mPool.getParallelism() > 1;
+        }
+
+        @Override
+        public double estimateCost(PuzzleFeatures features) {
+            // each split copies the grid, so this only pays off once there is real searching to share
+            int parallelism = mPool.getParallelism();
+            return estimateSearchCost(features) / parallelism + 4.0 * features.getTiles() * parallelism;
+        }
+
+        @Override
+        public boolean solve(PackedGrid grid, CancellationToken cancellationToken) {
+            ParallelSearch search = new ParallelSearch(
+                    grid,
+                    VariableOrdering.MINIMUM_REMAINING_VALUES,
+                    ValueOrdering.FEWEST_TAPS,
+                    ParallelSearch.getDefaultSplitDepth(mPool));
+            search.setInference(mInferenceRules, mInferenceCounters);
+            search.setCancellationToken(cancellationToken);
+            return search.solve(mPool);
+        }
+    }
+
+    public static class PortfolioEngine implements SolverEngine {
+        private final ForkJoinPool mPool;
+        private final Set<Inference.Rule> mInferenceRules;
+        private final Inference.Counters mInferenceCounters = new Inference.Counters();
+
+        public PortfolioEngine(ForkJoinPool pool) {
+            this(pool, Inference.DEFAULT_RULES);
+        }
+
+        // Each solve applies inferenceRules before searching
+        public PortfolioEngine(ForkJoinPool pool, Set<Inference.Rule> inferenceRules) {
+            mPool = pool;
+            mInferenceRules = inferenceRules;
+        }
+
+        // What the inference rules did over every solve so far
+        public Inference.Counters getInferenceCounters() {
+            return mInferenceCounters;
+        }
+
+        @Override
+        public String getName() {
+            return "portfolio";
+        }
+
+        @Override
+        public boolean canSolve(PuzzleFeatures features) {
+            return mPool.getParallelism() > 1;
+        }
+
+        @Override
+        public double estimateCost(PuzzleFeatures features) {
+            // every run copies the grid and repeats the work the others do, but restarts keep an
+            // unlucky ordering from taking exponentially long, modelled as halving the exponent
+            int parallelism = mPool.getParallelism();
+            return features.getTiles() + estimateRegionSearch(features, 32.0) + 4.0 * features.getTiles() * parallelism;
+        }
+
+        @Override
+        public boolean solve(PackedGrid grid, CancellationToken cancellationToken) {
+            PortfolioSolver solver = new PortfolioSolver(
+                    grid,
+                    VariableOrdering.MINIMUM_REMAINING_VALUES,
+                    ValueOrdering.FEWEST_TAPS,
+                    mPool.getParallelism());
+            solver.setInference(mInferenceRules, mInferenceCounters);
+            solver.setCancellationToken(cancellationToken);
+            return solver.solve(mPool);
+        }
+    }
+}
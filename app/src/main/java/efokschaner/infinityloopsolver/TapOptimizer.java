@@ -0,0 +1,235 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.List;
+
+// Finds the solution needing the fewest taps, see PackedGrid.getTaps().
+// Independent regions add up their taps, so each is optimised on its own by branch and bound:
+// a branch is cut as soon as the taps of its solved tiles plus the cheapest orientation left for
+// each unsolved tile can't beat the best solution found so far.
+// Regions split further as tiles get decided, and each part is again optimised on its own.
+// The search runs on an explicit stack of frames rather than the Java stack, every frame decides a
+// tile so the grid size bounds its depth.
+public class TapOptimizer {
+    private static final int INFEASIBLE = Integer.MAX_VALUE;
+
+    // A region being optimised: it decides one tile, trying its orientations in turn, and after
+    // each decision optimises the parts the rest of the region splits into, one child frame each
+    private static class Frame {
+        int[] region;
+        // the region's taps must come in under this
+        int limit;
+        int index;
+        int domain;
+        // orientations with fewer taps than this have been tried, and those before o with this many
+        int taps;
+        int o;
+        int bestTaps;
+        // orientations of the region's tiles in the best solution so far, or null before one is found
+        int[] best;
+        // trail size before the decision being explored
+        int mark;
+        // parts left by the decision being explored, or null between decisions
+        List<int[]> parts;
+        // the part being optimised by the child frame
+        int part;
+        // the limit for the decision being explored, taps of the tiles it solved and of the parts
+        // optimised so far, and the lower bound of the parts after the current one
+        int branchLimit;
+        int total;
+        int partsBound;
+    }
+
+    private final PackedGrid mGrid;
+    private final Propagator mPropagator;
+    private final Regions mRegions;
+    // orientation of each tile in the best solution of the part last optimised that contains it
+    private final int[] mBest;
+    private final Frame[] mFrames;
+    private CancellationToken mCancellationToken = new CancellationToken();
+    private long mNodesExplored = 0;
+
+    public TapOptimizer(PackedGrid grid) {
+        mGrid = grid;
+        mPropagator = new Propagator(grid);
+        mRegions = new Regions(grid);
+        mBest = new int[grid.size()];
+        mFrames = new Frame[grid.size()];
+    }
+
+    // solve() gives up, returning false, soon after the token is cancelled
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    public long getNodesExplored() {
+        return mNodesExplored;
+    }
+
+    // Returns true with every tile solved in the way needing the fewest taps,
+    // or false with the grid as it was before the call
+    public boolean solve() {
+        int startOfSearch = mGrid.getTrailSize();
+        mPropagator.enqueueAll();
+        if(!mPropagator.propagate()) {
+            mGrid.undo(startOfSearch);
+            return false;
+        }
+        for(int[] region : mRegions.find()) {
+            if(optimize(region, INFEASIBLE) == INFEASIBLE || mCancellationToken.isCancelled()) {
+                mGrid.undo(startOfSearch);
+                return false;
+            }
+            for(int index : region) {
+                mGrid.setDomain(index, 1 << mBest[index]);
+            }
+        }
+        return true;
+    }
+
+    // Taps the unsolved tiles of cells would need if each got its cheapest orientation left
+    private int getLowerBound(int[] cells) {
+        int taps = 0;
+        for(int index : cells) {
+            int domain = mGrid.getDomain(index);
+            int cheapest = 4;
+            for(int o = 0; o < 4; ++o) {
+                if((domain & (1 << o)) != 0) {
+                    cheapest = Math.min(cheapest, mGrid.getTaps(index, o));
+                }
+            }
+            taps += cheapest;
+        }
+        return taps;
+    }
+
+    // Finds the fewest taps solving region, a region of unsolved tiles as returned by Regions,
+    // and records its orientations in mBest. Returns INFEASIBLE when it can't be done in fewer
+    // than limit taps. Leaves the grid as it was.
+    private int optimize(int[] region, int limit) {
+        int startOfSearch = mGrid.getTrailSize();
+        open(0, region, limit);
+        int depth = 1;
+        // what the frame above the top one found, once it is done
+        int result = -1;
+        while(true) {
+            if(mCancellationToken.isCancelled()) {
+                mGrid.undo(startOfSearch);
+                return INFEASIBLE;
+            }
+            Frame frame = mFrames[depth - 1];
+            if(result >= 0) {
+                // A part of the decision being explored is done
+                if(result == INFEASIBLE) {
+                    mGrid.undo(frame.mark);
+                    frame.parts = null;
+                } else {
+                    frame.total += result;
+                    ++frame.part;
+                }
+                result = -1;
+            } else if(frame.parts == null && !decideNext(frame)) {
+                // Every orientation of the tile is done
+                if(frame.best != null) {
+                    for(int i = 0; i < frame.region.length; ++i) {
+                        mBest[frame.region[i]] = frame.best[i];
+                    }
+                }
+                result = frame.bestTaps;
+                frame.region = null;
+                frame.best = null;
+                if(--depth == 0) {
+                    return result;
+                }
+                continue;
+            }
+            if(frame.parts == null) {
+                continue;
+            }
+            if(frame.part < frame.parts.size()) {
+                int[] part = frame.parts.get(frame.part);
+                frame.partsBound -= getLowerBound(part);
+                int partLimit = frame.branchLimit == INFEASIBLE
+                        ? INFEASIBLE
+                        : frame.branchLimit - frame.total - frame.partsBound;
+                open(depth, part, partLimit);
+                ++depth;
+                continue;
+            }
+            // Every part is done, so the decision solves the whole region
+            if(frame.total < frame.bestTaps) {
+                frame.bestTaps = frame.total;
+                if(frame.best == null) {
+                    frame.best = new int[frame.region.length];
+                }
+                for(int i = 0; i < frame.region.length; ++i) {
+                    int cell = frame.region[i];
+                    frame.best[i] = mGrid.isSolved(cell) ? mGrid.getOrientation(cell) : mBest[cell];
+                }
+            }
+            mGrid.undo(frame.mark);
+            frame.parts = null;
+        }
+    }
+
+    private void open(int depth, int[] region, int limit) {
+        if(mFrames[depth] == null) {
+            mFrames[depth] = new Frame();
+        }
+        Frame frame = mFrames[depth];
+        frame.region = region;
+        frame.limit = limit;
+        frame.index = VariableOrdering.MINIMUM_REMAINING_VALUES.select(mGrid, region, region.length);
+        frame.domain = mGrid.getDomain(frame.index);
+        frame.taps = 0;
+        frame.o = 0;
+        frame.bestTaps = INFEASIBLE;
+        frame.best = null;
+        frame.parts = null;
+    }
+
+    // Decides the frame's tile on its next orientation which propagates and leaves parts which
+    // might come in under the limit, cheapest orientations first so good solutions tighten the
+    // bound early. Returns false, with the grid as it was, when no orientation is left.
+    private boolean decideNext(Frame frame) {
+        for(; frame.taps < 4; ++frame.taps, frame.o = 0) {
+            while(frame.o < 4) {
+                int o = frame.o++;
+                if((frame.domain & (1 << o)) == 0 || mGrid.getTaps(frame.index, o) != frame.taps) {
+                    continue;
+                }
+                ++mNodesExplored;
+                frame.mark = mGrid.getTrailSize();
+                mGrid.setDomain(frame.index, 1 << o);
+                mPropagator.enqueueNeighbours(frame.index);
+                if(mPropagator.propagate() && split(frame)) {
+                    return true;
+                }
+                mGrid.undo(frame.mark);
+            }
+        }
+        return false;
+    }
+
+    // Counts the taps of the tiles of the frame's region which the decision solved and splits the
+    // rest into parts, returning false if those can't come in under the limit
+    private boolean split(Frame frame) {
+        frame.branchLimit = Math.min(frame.limit, frame.bestTaps);
+        frame.total = 0;
+        for(int cell : frame.region) {
+            if(mGrid.isSolved(cell)) {
+                frame.total += mGrid.getTaps(cell);
+            }
+        }
+        List<int[]> parts = mRegions.find(frame.region, frame.region.length);
+        frame.partsBound = 0;
+        for(int[] part : parts) {
+            frame.partsBound += getLowerBound(part);
+        }
+        if(frame.total + frame.partsBound >= frame.branchLimit) {
+            return false;
+        }
+        frame.parts = parts;
+        frame.part = 0;
+        return true;
+    }
+}
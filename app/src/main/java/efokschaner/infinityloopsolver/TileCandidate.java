@@ -0,0 +1,14 @@
+package efokschaner.infinityloopsolver;
+
+// One way recognition read a tile, with how well its template matched
+public class TileCandidate {
+    public final TileType type;
+    public final TileOrientation orientation;
+    public final double certainty;
+
+    public TileCandidate(TileType type, TileOrientation orientation, double certainty) {
+        this.type = type;
+        this.orientation = orientation;
+        this.certainty = certainty;
+    }
+}
@@ -7,14 +7,20 @@ public class TileOrientation {
     public static final TileOrientation HALF = new TileOrientation(2);
     public static final TileOrientation THREE_QUARTERS = new TileOrientation(3);
 
+    private static final TileOrientation[] VALUES = {ZERO, QUARTER, HALF, THREE_QUARTERS};
+
     private int mValue;
 
     TileOrientation(int value) {
         mValue = value;
     }
 
+    public static TileOrientation fromValue(int value) {
+        return VALUES[value & 3];
+    }
+
     public TileOrientation rotate(int num) {
-        return new TileOrientation((mValue + num) % 4);
+        return fromValue(mValue + num);
     }
 
     public TileOrientation rotate() {
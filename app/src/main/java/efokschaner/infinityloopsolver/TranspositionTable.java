@@ -0,0 +1,46 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed size, lock-free set of 64 bit Zobrist keys of search states known to have no solution.
+// Each key has a single slot and newer keys simply replace older ones, so lookups and inserts
+// are one atomic read or write and the table can be shared by concurrent searches of one grid.
+// A false positive needs two different states to share all 64 bits of their key.
+// Keys say nothing about tile types, so a table must only ever be used for one puzzle.
+public class TranspositionTable {
+    public static final long DEFAULT_MEMORY_BYTES = 256 * 1024;
+
+    private final AtomicLongArray mSlots;
+    private final int mMask;
+
+    // The table uses the largest power of two number of slots fitting in memoryBytes
+    public TranspositionTable(long memoryBytes) {
+        long slots = Long.highestOneBit(Math.max(memoryBytes / 8, 1));
+        int size = (int) Math.min(slots, 1 << 30);
+        mSlots = new AtomicLongArray(size);
+        mMask = size - 1;
+    }
+
+    // Zero marks an empty slot, so it is never stored
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    public void add(long key) {
+        key = nonZero(key);
+        mSlots.lazySet((int) (key ^ (key >>> 32)) & mMask, key);
+    }
+
+    public boolean contains(long key) {
+        key = nonZero(key);
+        return mSlots.get((int) (key ^ (key >>> 32)) & mMask) == key;
+    }
+
+    // Random looking 64 bit value for any input, used to build Zobrist keys (splitmix64 finaliser)
+    public static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,31 @@
+package efokschaner.infinityloopsolver;
+
+// Strategies for the order in which the search tries the legal orientations of a tile
+public enum ValueOrdering {
+    // ZERO, QUARTER, HALF, THREE_QUARTERS
+    DECLARATION {
+        @Override
+        public int getStartOrientation(PackedGrid grid, int index) {
+            return 0;
+        }
+    },
+    // Starting from the orientation needing the fewest taps, so the cheaper orientations come first
+    FEWEST_TAPS {
+        @Override
+        public int getStartOrientation(PackedGrid grid, int index) {
+            int domain = grid.getDomain(index);
+            int best = grid.getInitialOrientation(index);
+            int bestTaps = 4;
+            for(int o = 0; o < 4; ++o) {
+                if((domain & (1 << o)) != 0 && grid.getTaps(index, o) < bestTaps) {
+                    best = o;
+                    bestTaps = grid.getTaps(index, o);
+                }
+            }
+            return best;
+        }
+    };
+
+    // Orientations are tried clockwise starting from this one
+    public abstract int getStartOrientation(PackedGrid grid, int index);
+}
@@ -0,0 +1,106 @@
+package efokschaner.infinityloopsolver;
+
+// Strategies for picking which unsolved tile the search branches on next
+public enum VariableOrdering {
+    // The first unsolved tile in the order given
+    FIRST_UNSOLVED {
+        @Override
+        public int select(PackedGrid grid, int[] cells, int count) {
+            for(int i = 0; i < count; ++i) {
+                int index = cells[i];
+                if(!grid.isSolved(index)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+    },
+    // The tile with the fewest legal orientations left
+    MINIMUM_REMAINING_VALUES {
+        @Override
+        public int select(PackedGrid grid, int[] cells, int count) {
+            int best = -1;
+            int bestSize = Integer.MAX_VALUE;
+            for(int i = 0; i < count; ++i) {
+                int index = cells[i];
+                if(!grid.isSolved(index)) {
+                    int size = Integer.bitCount(grid.getDomain(index));
+                    if(size < bestSize) {
+                        best = index;
+                        bestSize = size;
+                        if(size == 2) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return best;
+        }
+    },
+    // The tile with the smallest ratio of legal orientations to unsolved neighbours,
+    // so that each decision constrains as much of the grid as possible
+    DEGREE_WEIGHTED {
+        @Override
+        public int select(PackedGrid grid, int[] cells, int count) {
+            int best = -1;
+            int bestSize = 0;
+            int bestDegree = 0;
+            for(int i = 0; i < count; ++i) {
+                int index = cells[i];
+                if(!grid.isSolved(index)) {
+                    int size = Integer.bitCount(grid.getDomain(index));
+                    int degree = 1 + getUnsolvedNeighbourCount(grid, index);
+                    // size / degree < bestSize / bestDegree
+                    if(best < 0 || size * bestDegree < bestSize * degree) {
+                        best = index;
+                        bestSize = size;
+                        bestDegree = degree;
+                    }
+                }
+            }
+            return best;
+        }
+    },
+    // The unsolved tile closest to the edge of the grid, where the border constrains it the most,
+    // breaking ties by fewest legal orientations
+    BORDER_FIRST {
+        @Override
+        public int select(PackedGrid grid, int[] cells, int count) {
+            int best = -1;
+            int bestDistance = Integer.MAX_VALUE;
+            int bestSize = Integer.MAX_VALUE;
+            for(int i = 0; i < count; ++i) {
+                int index = cells[i];
+                if(!grid.isSolved(index)) {
+                    int col = grid.col(index);
+                    int row = grid.row(index);
+                    int distance = Math.min(
+                            Math.min(col, grid.getCols() - 1 - col),
+                            Math.min(row, grid.getRows() - 1 - row));
+                    int size = Integer.bitCount(grid.getDomain(index));
+                    if(distance < bestDistance || (distance == bestDistance && size < bestSize)) {
+                        best = index;
+                        bestDistance = distance;
+                        bestSize = size;
+                    }
+                }
+            }
+            return best;
+        }
+    };
+
+    // Returns the index of the tile among the first count cells to branch on,
+    // or -1 when all of them are solved
+    public abstract int select(PackedGrid grid, int[] cells, int count);
+
+    private static int getUnsolvedNeighbourCount(PackedGrid grid, int index) {
+        int count = 0;
+        for(int direction : Direction.ALL) {
+            int n = grid.neighbour(index, direction);
+            if(n >= 0 && !grid.isSolved(n)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
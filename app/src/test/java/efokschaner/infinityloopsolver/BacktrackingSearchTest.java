@@ -0,0 +1,165 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BacktrackingSearchTest {
+    @Test
+    public void solvesRandomBoards() {
+        Random random = new Random(1);
+        for(VariableOrdering variableOrdering : VariableOrdering.values()) {
+            for(ValueOrdering valueOrdering : ValueOrdering.values()) {
+                for(int i = 0; i < 20; ++i) {
+                    PackedGrid grid = new PackedGrid(TestBoards.createSolvable(
+                            random,
+                            1 + random.nextInt(20),
+                            1 + random.nextInt(20),
+                            0.3 + 0.5 * random.nextDouble()));
+                    assertTrue(new BacktrackingSearch(grid, variableOrdering, valueOrdering).solve());
+                    assertTrue(TestBoards.isSolved(grid));
+                }
+            }
+        }
+    }
+
+    // The search decides on the grid in place, so giving up must take back every decision
+    // and every orientation propagated from one
+    @Test
+    public void undoesEverythingWhenUnsolvable() {
+        Random random = new Random(2);
+        int unsolvable = 0;
+        for(int i = 0; i < 300; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 2 + random.nextInt(3), 2 + random.nextInt(3), 0.6);
+            TestBoards.perturb(random, board);
+            PackedGrid grid = new PackedGrid(board);
+            if(TestBoards.countSolutions(grid) > 0) {
+                continue;
+            }
+            int[] domains = TestBoards.getDomains(grid);
+            int trailSize = grid.getTrailSize();
+            BacktrackingSearch search = new BacktrackingSearch(
+                    grid,
+                    VariableOrdering.MINIMUM_REMAINING_VALUES,
+                    ValueOrdering.FEWEST_TAPS);
+            assertFalse(search.solve());
+            assertEquals(trailSize, grid.getTrailSize());
+            assertArrayEquals(domains, TestBoards.getDomains(grid));
+            ++unsolvable;
+        }
+        assertTrue(unsolvable > 0);
+    }
+
+    // Ends facing each other in pairs, which taking the tiles in order and the orientations as
+    // declared pairs up one decision after another without ever backtracking, over a thousand
+    // decisions deep. Then big random boards, all on a thread with a fraction of the default stack.
+    @Test
+    public void solvesDeepBoardsOnASmallStack() throws Throwable {
+        final Throwable[] thrown = new Throwable[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Random random = new Random(7);
+                    TileState[][] ends = new TileState[50][50];
+                    for(TileState[] column : ends) {
+                        for(int row = 0; row < column.length; ++row) {
+                            column[row] = TestBoards.createTile(random, TileType.END);
+                        }
+                    }
+                    PackedGrid grid = new PackedGrid(ends);
+                    assertTrue(new BacktrackingSearch(grid, VariableOrdering.FIRST_UNSOLVED, ValueOrdering.DECLARATION).solve());
+                    assertTrue(TestBoards.isSolved(grid));
+                    for(int i = 0; i < 3; ++i) {
+                        grid = new PackedGrid(TestBoards.createSolvable(random, 200, 200, 0.5));
+                        assertTrue(new BacktrackingSearch(
+                                grid,
+                                VariableOrdering.MINIMUM_REMAINING_VALUES,
+                                ValueOrdering.FEWEST_TAPS).solve());
+                        assertTrue(TestBoards.isSolved(grid));
+                    }
+                } catch(Throwable t) {
+                    thrown[0] = t;
+                }
+            }
+        }, "small stack", 256 * 1024);
+        thread.start();
+        thread.join();
+        if(thrown[0] != null) {
+            throw thrown[0];
+        }
+    }
+
+    // Boards too big to brute force, checked against the frontier DP, which doesn't backjump.
+    // A tiny nogood cache makes the search rely on backjumping alone.
+    @Test
+    public void agreesWithFrontierSolver() {
+        Random random = new Random(3);
+        for(int nogoodCapacity : new int[] {1, BacktrackingSearch.DEFAULT_NOGOOD_CAPACITY}) {
+            for(int i = 0; i < 150; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, FrontierSolver.MAX_WIDTH, 8 + random.nextInt(16), 0.5);
+                for(int perturbations = random.nextInt(3); perturbations >= 0; --perturbations) {
+                    TestBoards.perturb(random, board);
+                }
+                boolean solvable = new FrontierSolver(new PackedGrid(board)).solve();
+                PackedGrid grid = new PackedGrid(board);
+                int[] domains = TestBoards.getDomains(grid);
+                BacktrackingSearch search = new BacktrackingSearch(
+                        grid,
+                        VariableOrdering.DEGREE_WEIGHTED,
+                        ValueOrdering.DECLARATION);
+                search.setNogoodCapacity(nogoodCapacity);
+                assertEquals(solvable, search.solve());
+                if(solvable) {
+                    assertTrue(TestBoards.isSolved(grid));
+                } else {
+                    assertArrayEquals(domains, TestBoards.getDomains(grid));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keepsNogoodsWithinCapacity() {
+        Random random = new Random(8);
+        int full = 0;
+        for(int nogoodCapacity : new int[] {1, 4, 16}) {
+            for(int i = 0; i < 50; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, 20, 20, 0.5);
+                TestBoards.perturb(random, board);
+                BacktrackingSearch search = new BacktrackingSearch(
+                        new PackedGrid(board),
+                        VariableOrdering.DEGREE_WEIGHTED,
+                        ValueOrdering.DECLARATION);
+                search.setNogoodCapacity(nogoodCapacity);
+                search.solve();
+                assertTrue(search.getNogoodCount() <= nogoodCapacity);
+                if(search.getNogoodCount() == nogoodCapacity) {
+                    ++full;
+                }
+            }
+        }
+        assertTrue(full > 0);
+    }
+
+    // Some of these need a backjump past a tile whose orientations were all pruned or tried,
+    // which must blame the decisions that pruned them as well as those that failed
+    @Test
+    public void solvesLargeBoards() {
+        Random random = new Random(6);
+        long backjumps = 0;
+        for(int i = 0; i < 10; ++i) {
+            PackedGrid grid = new PackedGrid(TestBoards.createSolvable(random, 100, 100, 0.5));
+            BacktrackingSearch search = new BacktrackingSearch(
+                    grid,
+                    VariableOrdering.MINIMUM_REMAINING_VALUES,
+                    ValueOrdering.FEWEST_TAPS);
+            assertTrue(search.solve());
+            assertTrue(TestBoards.isSolved(grid));
+            backjumps += search.getBackjumps();
+        }
+        assertTrue(backjumps > 0);
+    }
+}
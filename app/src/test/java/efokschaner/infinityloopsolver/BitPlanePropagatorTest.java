@@ -0,0 +1,105 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BitPlanePropagatorTest {
+    // Widths either side of each word boundary
+    private static final int[] COLS = {1, 63, 64, 65, 127, 128, 129};
+
+    // Decides a few tiles at random, as the search would before propagating
+    private static void decide(Random random, PackedGrid grid, int decisions) {
+        for(int i = 0; i < decisions; ++i) {
+            int index = random.nextInt(grid.size());
+            int domain = grid.getDomain(index);
+            int o = random.nextInt(4);
+            if((domain & (1 << o)) != 0) {
+                grid.setDomain(index, 1 << o);
+            }
+        }
+    }
+
+    @Test
+    public void reachesTheSameFixedPointAsPropagator() {
+        Random random = new Random(1);
+        int conflicts = 0;
+        for(int cols : COLS) {
+            for(int i = 0; i < 50; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, cols, 1 + random.nextInt(12), 0.3 + 0.6 * random.nextDouble());
+                if(random.nextBoolean()) {
+                    TestBoards.perturb(random, board);
+                }
+                PackedGrid grid = new PackedGrid(board);
+                decide(random, grid, random.nextInt(4));
+                int[] domains = TestBoards.getDomains(grid);
+                PackedGrid propagated = new PackedGrid(grid);
+                Propagator propagator = new Propagator(propagated);
+                propagator.enqueueAll();
+                boolean consistent = propagator.propagate();
+                assertEquals(consistent, new BitPlanePropagator(grid).propagate());
+                if(consistent) {
+                    assertArrayEquals(TestBoards.getDomains(propagated), TestBoards.getDomains(grid));
+                    for(int index = 0; index < grid.size(); ++index) {
+                        assertEquals(propagated.isSolved(index), grid.isSolved(index));
+                    }
+                } else {
+                    assertArrayEquals(domains, TestBoards.getDomains(grid));
+                    ++conflicts;
+                }
+            }
+        }
+        assertTrue(conflicts > 0);
+    }
+
+    // A cross on the border of an otherwise empty board leaves either itself or an empty neighbour
+    // without orientations, in whichever word it is
+    @Test
+    public void reportsTheTileLeftWithoutOrientations() {
+        int rows = 3;
+        for(int col = 0; col < 130; ++col) {
+            for(int row = 0; row < rows; row += rows - 1) {
+                TileState[][] board = new TileState[130][rows];
+                for(TileState[] column : board) {
+                    Arrays.fill(column, TileState.EMPTY);
+                }
+                board[col][row] = new TileState();
+                board[col][row].type = TileType.CROSS;
+                PackedGrid grid = new PackedGrid(board);
+                int cross = grid.index(col, row);
+                BitPlanePropagator propagator = new BitPlanePropagator(grid);
+                assertFalse(propagator.propagate());
+                int conflict = propagator.getConflictIndex();
+                boolean neighbour = false;
+                for(int direction : Direction.ALL) {
+                    neighbour |= conflict == grid.neighbour(cross, direction);
+                }
+                assertTrue(conflict == cross || neighbour);
+            }
+        }
+    }
+
+    // Boards of 64 or more columns are propagated a word of columns at a time
+    @Test
+    public void searchAgreesWithSatSolverOnWideBoards() {
+        Random random = new Random(4);
+        for(int i = 0; i < 20; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 64 + random.nextInt(20), 4 + random.nextInt(8), 0.5);
+            if(random.nextBoolean()) {
+                TestBoards.perturb(random, board);
+            }
+            boolean solvable = new SatSolver(new PackedGrid(board)).solve();
+            PackedGrid grid = new PackedGrid(board);
+            assertEquals(solvable, new BacktrackingSearch(
+                    grid,
+                    VariableOrdering.MINIMUM_REMAINING_VALUES,
+                    ValueOrdering.FEWEST_TAPS).solve());
+            if(solvable) {
+                assertTrue(TestBoards.isSolved(grid));
+            }
+        }
+    }
+}
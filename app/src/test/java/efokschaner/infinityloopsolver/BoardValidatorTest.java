@@ -0,0 +1,106 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BoardValidatorTest {
+    private static TileState[][] createBoard(TileType[][] types) {
+        Random random = new Random(0);
+        TileState[][] board = new TileState[types.length][];
+        for(int col = 0; col < types.length; ++col) {
+            board[col] = new TileState[types[col].length];
+            for(int row = 0; row < types[col].length; ++row) {
+                board[col][row] = TestBoards.createTile(random, types[col][row]);
+            }
+        }
+        return board;
+    }
+
+    @Test
+    public void acceptsSolvableBoards() {
+        Random random = new Random(1);
+        for(int i = 0; i < 200; ++i) {
+            PackedGrid grid = new PackedGrid(TestBoards.createSolvable(
+                    random,
+                    1 + random.nextInt(20),
+                    1 + random.nextInt(20),
+                    0.3 + 0.5 * random.nextDouble()));
+            BoardValidator validator = new BoardValidator(grid);
+            assertNull(validator.validate());
+            assertNull(validator.getViolation());
+        }
+    }
+
+    // Crosses on the border have nowhere to turn, the first of them in index order is reported
+    @Test
+    public void rejectsTileWhichCannotFit() {
+        PackedGrid grid = new PackedGrid(createBoard(new TileType[][] {
+                {TileType.CORNER, TileType.TEE, TileType.CORNER},
+                {TileType.CROSS, TileType.CROSS, TileType.TEE},
+                {TileType.CORNER, TileType.TEE, TileType.CROSS},
+        }));
+        BoardValidator validator = new BoardValidator(grid);
+        assertArrayEquals(new int[] {3}, validator.validate());
+        assertEquals(BoardValidator.Violation.TILE, validator.getViolation());
+    }
+
+    // Each end needs another tile to connect to, and only three of them can reach one another
+    @Test
+    public void rejectsRegionWithOddConnections() {
+        PackedGrid grid = new PackedGrid(createBoard(new TileType[][] {
+                {TileType.END, TileType.END},
+                {TileType.END, TileType.EMPTY},
+        }));
+        BoardValidator validator = new BoardValidator(grid);
+        assertArrayEquals(new int[] {0, 1, 2}, validator.validate());
+        assertEquals(BoardValidator.Violation.REGION, validator.getViolation());
+    }
+
+    // The top left end narrowed to face off the board, and then let go again
+    @Test
+    public void forgetsViolationOnceFixed() {
+        PackedGrid grid = new PackedGrid(createBoard(new TileType[][] {
+                {TileType.END, TileType.END},
+                {TileType.END, TileType.END},
+        }));
+        BoardValidator validator = new BoardValidator(grid);
+        assertNull(validator.validate());
+        int mark = grid.getTrailSize();
+        grid.setDomain(0, 1 << TileOrientation.ZERO.getValue());
+        assertArrayEquals(new int[] {0}, validator.validate());
+        assertEquals(BoardValidator.Violation.TILE, validator.getViolation());
+        grid.undo(mark);
+        assertNull(validator.validate());
+        assertNull(validator.getViolation());
+    }
+
+    // Every tile fits its neighbours and the connections are even, but the line on the left
+    // turns the corner below the end away from the only side it could still connect on
+    @Test
+    public void passesSomeBoardsWithoutSolution() {
+        PackedGrid grid = new PackedGrid(createBoard(new TileType[][] {
+                {TileType.CORNER, TileType.LINE, TileType.END},
+                {TileType.END, TileType.CORNER, TileType.CORNER},
+        }));
+        assertNull(new BoardValidator(grid).validate());
+        assertEquals(0, TestBoards.countSolutions(grid));
+    }
+
+    @Test
+    public void gameStateReportsViolation() throws GameState.UnsolvableError {
+        GameState gameState = new GameState(new GridInfo(), createBoard(new TileType[][] {
+                {TileType.END, TileType.END},
+                {TileType.END, TileType.EMPTY},
+        }));
+        try {
+            gameState.getSolution(SolverEngines.BACKTRACKING, new CancellationToken());
+            fail();
+        } catch (GameState.InvalidBoardError e) {
+            assertEquals(BoardValidator.Violation.REGION, e.violation);
+            assertArrayEquals(new int[] {0, 1, 2}, e.suspiciousCells);
+        }
+    }
+}
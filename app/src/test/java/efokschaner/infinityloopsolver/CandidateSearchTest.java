@@ -0,0 +1,220 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CandidateSearchTest {
+    private static TileCandidate[][] byIndex(TileCandidate[][][] candidates) {
+        int rows = candidates[0].length;
+        TileCandidate[][] byIndex = new TileCandidate[candidates.length * rows][];
+        for(int col = 0; col < candidates.length; ++col) {
+            for(int row = 0; row < rows; ++row) {
+                if(candidates[col][row].length > 1) {
+                    byIndex[col * rows + row] = candidates[col][row];
+                }
+            }
+        }
+        return byIndex;
+    }
+
+    // A board whose tile at col, row is recognised as a type it isn't, with its true type the
+    // second candidate, and a few correctly recognised tiles with wrong second candidates
+    private static TileCandidate[][][] createMisread(Random random, TileState[][] board, int col, int row) {
+        TileCandidate[][][] candidates = TestBoards.getCandidates(board);
+        for(int i = 0; i < 4; ++i) {
+            int c = random.nextInt(board.length);
+            int r = random.nextInt(board[c].length);
+            if(c != col || r != row) {
+                candidates[c][r] = new TileCandidate[] {
+                        TestBoards.getCandidate(board[c][r], 0.9),
+                        TestBoards.getCandidate(TestBoards.createTile(random, TileType.values()[random.nextInt(TileType.values().length)]), 0.4 + 0.1 * i)};
+            }
+        }
+        candidates[col][row] = new TileCandidate[] {
+                TestBoards.getCandidate(TestBoards.misread(random, board, col, row), 0.8),
+                TestBoards.getCandidate(board[col][row], 0.7)};
+        return candidates;
+    }
+
+    @Test
+    public void keepsTilesAsRecognisedWhenSolvable() {
+        Random random = new Random(1);
+        for(int i = 0; i < 50; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 8, 8, 0.5);
+            TileCandidate[][][] candidates = TestBoards.getCandidates(board);
+            candidates[3][4] = new TileCandidate[] {
+                    TestBoards.getCandidate(board[3][4], 0.9),
+                    TestBoards.getCandidate(TestBoards.createTile(random, TileType.CROSS), 0.5)};
+            PackedGrid grid = new PackedGrid(board);
+            CandidateSearch search = new CandidateSearch(grid, byIndex(candidates), SolverEngines.BACKTRACKING);
+            assertTrue(search.solve(new CancellationToken()));
+            assertEquals(1, search.getAttempts());
+            assertEquals(0, search.getSubstitutedCells().length);
+            assertTrue(TestBoards.isSolved(grid));
+        }
+    }
+
+    // The misread tile gives up the least certainty, so it is substituted before any decoy
+    @Test
+    public void substitutesMisreadTile() {
+        Random random = new Random(2);
+        for(int i = 0; i < 50; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 8, 8, 0.5);
+            int col = random.nextInt(8);
+            int row = random.nextInt(8);
+            TileCandidate[][][] candidates = createMisread(random, board, col, row);
+            PackedGrid grid = new PackedGrid(getMostCertain(candidates));
+            CandidateSearch search = new CandidateSearch(grid, byIndex(candidates), SolverEngines.BACKTRACKING);
+            assertTrue(search.solve(new CancellationToken()));
+            assertTrue(TestBoards.isSolved(grid));
+            assertArrayEquals(new int[] {grid.index(col, row)}, search.getSubstitutedCells());
+            assertEquals(board[col][row].type, grid.getType(grid.index(col, row)));
+        }
+    }
+
+    // Two decoys give up less certainty than the misread tile, alone and together, so those three
+    // sets are tried first. The true type is also the third candidate, recognised in another
+    // orientation, which fixes the board as well but gives up more.
+    @Test
+    public void triesCheaperSubstitutionsFirst() {
+        Random random = new Random(6);
+        int tried = 0;
+        for(int i = 0; i < 50; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 8, 8, 0.5);
+            TileCandidate[][][] candidates = TestBoards.getCandidates(board);
+            TileState misread = TestBoards.misread(random, board, 4, 4);
+            TileState turned = new TileState();
+            turned.type = board[4][4].type;
+            turned.orientation = board[4][4].orientation.rotate();
+            candidates[4][4] = new TileCandidate[] {
+                    TestBoards.getCandidate(misread, 0.8),
+                    TestBoards.getCandidate(board[4][4], 0.7),
+                    TestBoards.getCandidate(turned, 0.5)};
+            TileState[][] recognised = getMostCertain(candidates);
+            int[] cols = {1, 6};
+            double[] certainties = {0.88, 0.85};
+            boolean decoySolves = false;
+            for(int j = 0; j < cols.length; ++j) {
+                TileState decoy = TestBoards.createTile(random, TileType.values()[random.nextInt(TileType.values().length)]);
+                candidates[cols[j]][2] = new TileCandidate[] {
+                        TestBoards.getCandidate(board[cols[j]][2], 0.9),
+                        TestBoards.getCandidate(decoy, certainties[j])};
+                recognised[cols[j]][2] = decoy;
+                decoySolves |= new SatSolver(new PackedGrid(recognised)).solve();
+            }
+            recognised[1][2] = board[1][2];
+            decoySolves |= new SatSolver(new PackedGrid(recognised)).solve();
+            if(decoySolves) {
+                continue;
+            }
+            PackedGrid grid = new PackedGrid(getMostCertain(candidates));
+            CandidateSearch search = new CandidateSearch(grid, byIndex(candidates), SolverEngines.BACKTRACKING);
+            assertTrue(search.solve(new CancellationToken()));
+            assertEquals(5, search.getAttempts());
+            assertArrayEquals(new int[] {grid.index(4, 4)}, search.getSubstitutedCells());
+            assertEquals(board[4][4].orientation.getValue(), grid.getInitialOrientation(grid.index(4, 4)));
+            ++tried;
+        }
+        assertTrue(tried > 0);
+    }
+
+    @Test
+    public void substitutesTwoMisreadTiles() {
+        Random random = new Random(3);
+        int[] cols = {1, 6};
+        int[] rows = {2, 5};
+        int pairs = 0;
+        for(int i = 0; i < 20; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 8, 8, 0.5);
+            TileCandidate[][][] candidates = TestBoards.getCandidates(board);
+            for(int j = 0; j < cols.length; ++j) {
+                candidates[cols[j]][rows[j]] = new TileCandidate[] {
+                        TestBoards.getCandidate(TestBoards.misread(random, board, cols[j], rows[j]), 0.8),
+                        TestBoards.getCandidate(board[cols[j]][rows[j]], 0.7)};
+            }
+            TileState[][] recognised = getMostCertain(candidates);
+            if(new SatSolver(new PackedGrid(recognised)).solve()) {
+                continue;
+            }
+            PackedGrid grid = new PackedGrid(recognised);
+            CandidateSearch search = new CandidateSearch(grid, byIndex(candidates), SolverEngines.BACKTRACKING);
+            assertTrue(search.solve(new CancellationToken()));
+            assertTrue(TestBoards.isSolved(grid));
+            // substituting one of the two may be enough on its own
+            int[] substituted = sorted(search.getSubstitutedCells());
+            if(substituted.length == 2) {
+                assertArrayEquals(new int[] {grid.index(cols[0], rows[0]), grid.index(cols[1], rows[1])}, substituted);
+                ++pairs;
+            }
+        }
+        assertTrue(pairs > 0);
+    }
+
+    @Test
+    public void leavesGridUnchangedWithoutTheRightCandidate() {
+        Random random = new Random(4);
+        for(int i = 0; i < 50; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 6, 6, 0.5);
+            int col = random.nextInt(6);
+            int row = random.nextInt(6);
+            TileCandidate[][][] candidates = TestBoards.getCandidates(board);
+            candidates[col][row] = new TileCandidate[] {
+                    TestBoards.getCandidate(TestBoards.misread(random, board, col, row), 0.8),
+                    TestBoards.getCandidate(TestBoards.misread(random, board, col, row), 0.7)};
+            PackedGrid grid = new PackedGrid(getMostCertain(candidates));
+            int[] domains = TestBoards.getDomains(grid);
+            CandidateSearch search = new CandidateSearch(grid, byIndex(candidates), SolverEngines.BACKTRACKING);
+            assertFalse(search.solve(new CancellationToken()));
+            assertEquals(2, search.getAttempts());
+            assertArrayEquals(domains, TestBoards.getDomains(grid));
+            for(int index = 0; index < grid.size(); ++index) {
+                TileCandidate recognised = candidates[grid.col(index)][grid.row(index)][0];
+                assertEquals(recognised.type, grid.getType(index));
+                assertEquals(recognised.orientation.getValue(), grid.getInitialOrientation(index));
+            }
+        }
+    }
+
+    @Test
+    public void gameStateSolvesWithSubstitutions() throws GameState.UnsolvableError {
+        Random random = new Random(5);
+        for(int i = 0; i < 20; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 8, 8, 0.5);
+            int col = random.nextInt(8);
+            int row = random.nextInt(8);
+            TileCandidate[][][] candidates = TestBoards.getCandidates(board);
+            candidates[col][row] = new TileCandidate[] {
+                    TestBoards.getCandidate(TestBoards.misread(random, board, col, row), 0.8),
+                    TestBoards.getCandidate(board[col][row], 0.7)};
+            GameState gameState = new GameState(new GridInfo(), candidates);
+            assertTrue(gameState.hasAmbiguousTiles());
+            SolveResult result = gameState.getSolution(SolverEngines.BACKTRACKING, new CancellationToken());
+            assertEquals(SolveResult.Status.SOLVED, result.status);
+            assertTrue(TestBoards.isSolvedBy(board, result.plan));
+        }
+        assertFalse(new GameState(new GridInfo(), TestBoards.getCandidates(TestBoards.createSolvable(random, 4, 4, 0.5))).hasAmbiguousTiles());
+    }
+
+    private static int[] sorted(int[] cells) {
+        int[] sorted = cells.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static TileState[][] getMostCertain(TileCandidate[][][] candidates) {
+        TileState[][] board = new TileState[candidates.length][];
+        for(int col = 0; col < candidates.length; ++col) {
+            board[col] = new TileState[candidates[col].length];
+            for(int row = 0; row < candidates[col].length; ++row) {
+                board[col][row] = new TileState();
+                board[col][row].type = candidates[col][row][0].type;
+                board[col][row].orientation = candidates[col][row][0].orientation;
+            }
+        }
+        return board;
+    }
+}
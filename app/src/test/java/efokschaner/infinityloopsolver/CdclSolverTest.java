@@ -0,0 +1,171 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CdclSolverTest {
+    private static int[][] createRandomFormula(Random random, int numVars, int numClauses) {
+        int[][] clauses = new int[numClauses][3];
+        for(int[] clause : clauses) {
+            for(int i = 0; i < clause.length; ++i) {
+                clause[i] = (1 + random.nextInt(numVars)) * (random.nextBoolean() ? 1 : -1);
+            }
+        }
+        return clauses;
+    }
+
+    private static boolean isSatisfied(int[] clause, boolean[] values) {
+        for(int literal : clause) {
+            if(values[Math.abs(literal)] == literal > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSatisfiable(int[][] clauses, int numVars) {
+        boolean[] values = new boolean[numVars + 1];
+        for(int assignment = 0; assignment < 1 << numVars; ++assignment) {
+            for(int v = 1; v <= numVars; ++v) {
+                values[v] = (assignment & (1 << (v - 1))) != 0;
+            }
+            boolean satisfied = true;
+            for(int[] clause : clauses) {
+                if(!isSatisfied(clause, values)) {
+                    satisfied = false;
+                    break;
+                }
+            }
+            if(satisfied) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Around 4.3 clauses per variable random 3-SAT is as likely to be satisfiable as not
+    @Test
+    public void agreesWithBruteForceOnRandomFormulas() {
+        Random random = new Random(1);
+        int numVars = 12;
+        int satisfiable = 0;
+        for(int i = 0; i < 300; ++i) {
+            int[][] clauses = createRandomFormula(random, numVars, 52);
+            CdclSolver solver = new CdclSolver(numVars);
+            for(int[] clause : clauses) {
+                solver.addClause(clause);
+            }
+            boolean expected = isSatisfiable(clauses, numVars);
+            assertEquals(expected, solver.solve());
+            if(expected) {
+                ++satisfiable;
+                boolean[] values = new boolean[numVars + 1];
+                for(int v = 1; v <= numVars; ++v) {
+                    values[v] = solver.getValue(v);
+                }
+                for(int[] clause : clauses) {
+                    assertTrue(isSatisfied(clause, values));
+                }
+            }
+        }
+        assertTrue(satisfiable > 0 && satisfiable < 300);
+    }
+
+    // Placing pigeons in fewer holes takes enough conflicts to learn many clauses and restart
+    @Test
+    public void provesPigeonholeUnsatisfiable() {
+        int pigeons = 7;
+        int holes = 6;
+        CdclSolver solver = new CdclSolver(pigeons * holes);
+        for(int p = 0; p < pigeons; ++p) {
+            int[] somewhere = new int[holes];
+            for(int h = 0; h < holes; ++h) {
+                somewhere[h] = 1 + p * holes + h;
+            }
+            solver.addClause(somewhere);
+        }
+        for(int h = 0; h < holes; ++h) {
+            for(int p = 0; p < pigeons; ++p) {
+                for(int q = p + 1; q < pigeons; ++q) {
+                    solver.addClause(-(1 + p * holes + h), -(1 + q * holes + h));
+                }
+            }
+        }
+        assertFalse(solver.solve());
+        assertTrue(solver.getConflicts() > 100);
+    }
+
+    @Test
+    public void handlesUnitClauses() {
+        CdclSolver solver = new CdclSolver(2);
+        solver.addClause(1);
+        solver.addClause(-1, 2);
+        assertTrue(solver.solve());
+        assertTrue(solver.getValue(1));
+        assertTrue(solver.getValue(2));
+
+        solver = new CdclSolver(1);
+        solver.addClause(1);
+        solver.addClause(-1);
+        assertFalse(solver.solve());
+    }
+
+    // Only orientations left in each domain get a variable, so tiles already decided stay as they are
+    @Test
+    public void satSolverKeepsDecidedTiles() {
+        Random random = new Random(2);
+        for(int i = 0; i < 100; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 10, 10, 0.6);
+            PackedGrid solution = new PackedGrid(board);
+            assertTrue(new SatSolver(solution).solve());
+            PackedGrid grid = new PackedGrid(board);
+            for(int index = 0; index < grid.size(); ++index) {
+                if(random.nextInt(4) == 0) {
+                    grid.setDomain(index, solution.getDomain(index));
+                }
+            }
+            int[] decided = TestBoards.getDomains(grid);
+            assertTrue(new SatSolver(grid).solve());
+            assertTrue(TestBoards.isSolved(grid));
+            for(int index = 0; index < grid.size(); ++index) {
+                if(Integer.bitCount(decided[index]) == 1) {
+                    assertEquals(decided[index], grid.getDomain(index));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void satSolverAgreesWithBacktracking() {
+        Random random = new Random(4);
+        for(int i = 0; i < 200; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 8, 8, 0.6);
+            TestBoards.perturb(random, board);
+            PackedGrid grid = new PackedGrid(board);
+            int[] domains = TestBoards.getDomains(grid);
+            boolean solvable = new BacktrackingSearch(
+                    new PackedGrid(board),
+                    VariableOrdering.MINIMUM_REMAINING_VALUES,
+                    ValueOrdering.FEWEST_TAPS).solve();
+            assertEquals(solvable, new SatSolver(grid).solve());
+            if(solvable) {
+                assertTrue(TestBoards.isSolved(grid));
+            } else {
+                assertArrayEquals(domains, TestBoards.getDomains(grid));
+            }
+        }
+    }
+
+    @Test
+    public void satSolverSolvesLargerBoards() {
+        Random random = new Random(3);
+        for(int i = 0; i < 20; ++i) {
+            PackedGrid grid = new PackedGrid(TestBoards.createSolvable(random, 20, 20, 0.6));
+            assertTrue(new SatSolver(grid).solve());
+            assertTrue(TestBoards.isSolved(grid));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrontierSolverTest {
+    @Test
+    public void solvesNarrowBoards() {
+        Random random = new Random(1);
+        for(int i = 0; i < 200; ++i) {
+            int width = 1 + random.nextInt(FrontierSolver.MAX_WIDTH);
+            int length = 1 + random.nextInt(30);
+            boolean tall = random.nextBoolean();
+            PackedGrid grid = new PackedGrid(TestBoards.createSolvable(
+                    random,
+                    tall ? width : length,
+                    tall ? length : width,
+                    0.3 + 0.5 * random.nextDouble()));
+            assertTrue(FrontierSolver.isApplicable(grid));
+            assertTrue(new FrontierSolver(grid).solve());
+            assertTrue(TestBoards.isSolved(grid));
+        }
+    }
+
+    @Test
+    public void isApplicableOnlyToNarrowBoards() {
+        Random random = new Random(2);
+        int wide = FrontierSolver.MAX_WIDTH + 1;
+        assertTrue(FrontierSolver.isApplicable(new PackedGrid(TestBoards.createSolvable(random, FrontierSolver.MAX_WIDTH, 100, 0.5))));
+        assertTrue(FrontierSolver.isApplicable(new PackedGrid(TestBoards.createSolvable(random, 100, FrontierSolver.MAX_WIDTH, 0.5))));
+        assertFalse(FrontierSolver.isApplicable(new PackedGrid(TestBoards.createSolvable(random, wide, wide, 0.5))));
+    }
+
+    // Swept along whichever side is longer, so each board is tried both ways round
+    @Test
+    public void agreesWithBruteForce() {
+        Random random = new Random(3);
+        for(int i = 0; i < 300; ++i) {
+            int width = 1 + random.nextInt(3);
+            int length = width + 1 + random.nextInt(3);
+            boolean tall = random.nextBoolean();
+            TileState[][] board = TestBoards.createSolvable(random, tall ? width : length, tall ? length : width, 0.6);
+            TestBoards.perturb(random, board);
+            PackedGrid grid = new PackedGrid(board);
+            int[] domains = TestBoards.getDomains(grid);
+            boolean solvable = TestBoards.countSolutions(grid) > 0;
+            assertEquals(solvable, new FrontierSolver(grid).solve());
+            if(solvable) {
+                assertTrue(TestBoards.isSolved(grid));
+            } else {
+                assertArrayEquals(domains, TestBoards.getDomains(grid));
+            }
+        }
+    }
+
+    // The sweep takes time in proportion to the length, so boards far too long to search are fine
+    @Test
+    public void solvesVeryLongBoards() {
+        Random random = new Random(4);
+        for(int i = 0; i < 4; ++i) {
+            PackedGrid grid = new PackedGrid(TestBoards.createSolvable(random, FrontierSolver.MAX_WIDTH, 3000, 0.6));
+            assertTrue(new FrontierSolver(grid).solve());
+            assertTrue(TestBoards.isSolved(grid));
+        }
+    }
+}
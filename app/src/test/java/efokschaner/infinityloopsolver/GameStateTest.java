@@ -0,0 +1,393 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GameStateTest {
+    private static final GridInfo GRID_INFO = new GridInfo();
+
+    private static TileState[][] copy(TileState[][] board) {
+        TileState[][] copy = new TileState[board.length][];
+        for(int col = 0; col < board.length; ++col) {
+            copy[col] = board[col].clone();
+        }
+        return copy;
+    }
+
+    private static SolveResult solve(GameState gameState) throws GameState.UnsolvableError {
+        return gameState.getSolution(SolverEngines.BACKTRACKING, new CancellationToken());
+    }
+
+    private static SolveResult repair(GameState gameState, GameState previous) throws GameState.UnsolvableError {
+        return gameState.getSolution(
+                previous,
+                gameState.getChangedCells(previous),
+                SolverEngines.BACKTRACKING,
+                new CancellationToken());
+    }
+
+    // Tiles of the two solved boards which connect differently
+    private static int countDifferences(TileState[][] a, TileState[][] b) {
+        int count = 0;
+        for(int col = 0; col < a.length; ++col) {
+            for(int row = 0; row < a[col].length; ++row) {
+                if(a[col][row].type != b[col][row].type
+                        || Direction.applyOrientation(a[col][row].orientation, a[col][row].type.getConnectionDirections())
+                        != Direction.applyOrientation(b[col][row].orientation, b[col][row].type.getConnectionDirections())) {
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Runs out of time a few nodes into the search, as it would against a deadline on a big board
+    private static final SolverEngine OUT_OF_TIME = new SolverEngine() {
+        @Override
+        public String getName() {
+            return "out of time";
+        }
+
+        @Override
+        public boolean canSolve(PuzzleFeatures features) {
+            return true;
+        }
+
+        @Override
+        public double estimateCost(PuzzleFeatures features) {
+            return 0;
+        }
+
+        @Override
+        public boolean solve(PackedGrid grid, CancellationToken cancellationToken) {
+            BacktrackingSearch search = new BacktrackingSearch(
+                    grid,
+                    VariableOrdering.MINIMUM_REMAINING_VALUES,
+                    ValueOrdering.FEWEST_TAPS);
+            search.setNodeLimit(10);
+            if(search.solve()) {
+                return true;
+            }
+            cancellationToken.cancel();
+            return false;
+        }
+    };
+
+    // The board with every tile propagation alone can fix solved
+    private static PackedGrid propagate(TileState[][] board) {
+        PackedGrid grid = new PackedGrid(board);
+        Propagator propagator = new Propagator(grid);
+        propagator.enqueueAll();
+        assertTrue(propagator.propagate());
+        return grid;
+    }
+
+    // Taps of each solved tile of grid, by index
+    private static int[] getSolvedTaps(PackedGrid grid) {
+        int[] taps = new int[grid.size()];
+        for(int index = 0; index < grid.size(); ++index) {
+            if(grid.isSolved(index)) {
+                taps[index] = grid.getTaps(index);
+            }
+        }
+        return taps;
+    }
+
+    private static int countSolvedTiles(PackedGrid grid) {
+        int count = 0;
+        for(int index = 0; index < grid.size(); ++index) {
+            if(grid.isSolved(index)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    // Taps of each tile of board, by index, over all of plans
+    private static int[] getTaps(TileState[][] board, Iterable<ClickPlan> plans) {
+        int rows = board[0].length;
+        int[] taps = new int[board.length * rows];
+        for(ClickPlan plan : plans) {
+            for(int step = 0; step < plan.size(); ++step) {
+                taps[plan.getCol(step) * rows + plan.getRow(step)] += plan.getTaps(step);
+            }
+        }
+        return taps;
+    }
+
+    @Test
+    public void settlesForCertainTapsWhenOutOfTime() throws GameState.UnsolvableError {
+        Random random = new Random(10);
+        int partial = 0;
+        for(int i = 0; i < 20; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 60, 60, 0.5);
+            CancellationToken cancellationToken = new CancellationToken();
+            SolveResult result = new GameState(GRID_INFO, board).getSolution(OUT_OF_TIME, cancellationToken);
+            if(!cancellationToken.isCancelled()) {
+                continue;
+            }
+            assertTrue(result.status != SolveResult.Status.SOLVED);
+            PackedGrid certain = propagate(board);
+            assertEquals(countSolvedTiles(certain), result.fixedTiles);
+            assertArrayEquals(getSolvedTaps(certain), getTaps(board, Arrays.asList(result.plan)));
+            if(result.status == SolveResult.Status.PARTIAL) {
+                ++partial;
+            }
+        }
+        assertTrue(partial > 0);
+        // the deadline may pass at any point of the search, or not at all on a fast machine
+        TileState[][] board = TestBoards.createSolvable(random, 300, 300, 0.5);
+        CancellationToken cancellationToken = new CancellationToken();
+        cancellationToken.cancelAfter(1);
+        SolveResult result = new GameState(GRID_INFO, board).getSolution(SolverEngines.BACKTRACKING, cancellationToken);
+        if(result.status == SolveResult.Status.SOLVED) {
+            assertTrue(TestBoards.isSolvedBy(board, result.plan));
+        } else {
+            assertArrayEquals(getSolvedTaps(propagate(board)), getTaps(board, Arrays.asList(result.plan)));
+        }
+    }
+
+    // Opening or closing one edge of a solved board changes the types of the two tiles it joins
+    // and leaves the board solvable, so the repair only has to search around those two
+    @Test
+    public void repairsChangedTiles() throws GameState.UnsolvableError {
+        Random random = new Random(1);
+        for(int i = 0; i < 100; ++i) {
+            int cols = 16;
+            int rows = 16;
+            int[][] connections = TestBoards.createConnections(random, cols, rows, 0.5);
+            TileState[][] board = TestBoards.createBoard(random, connections);
+            GameState previous = new GameState(GRID_INFO, board);
+            TileState[][] previousSolution = TestBoards.tap(board, solve(previous).plan);
+
+            int col = random.nextInt(cols - 1);
+            int row = random.nextInt(rows - 1);
+            int direction = random.nextBoolean() ? Direction.RIGHT : Direction.DOWN;
+            int nextCol = direction == Direction.RIGHT ? col + 1 : col;
+            int nextRow = direction == Direction.DOWN ? row + 1 : row;
+            connections[col][row] ^= direction;
+            connections[nextCol][nextRow] ^= Direction.opposite(direction);
+            TileState[][] changed = copy(board);
+            changed[col][row] = TestBoards.createTile(random, connections[col][row]);
+            changed[nextCol][nextRow] = TestBoards.createTile(random, connections[nextCol][nextRow]);
+
+            GameState current = new GameState(GRID_INFO, changed);
+            int[] changedCells = current.getChangedCells(previous);
+            Arrays.sort(changedCells);
+            assertArrayEquals(new int[] {col * rows + row, nextCol * rows + nextRow}, changedCells);
+            SolveResult result = repair(current, previous);
+            assertEquals(SolveResult.Status.SOLVED, result.status);
+            assertTrue(TestBoards.isSolvedBy(changed, result.plan));
+            // the tiles away from the change keep the previous solution
+            assertTrue(countDifferences(previousSolution, TestBoards.tap(changed, result.plan)) <= cols * rows / 8);
+            assertTrue(TestBoards.isSolvedBy(changed, solve(new GameState(GRID_INFO, changed)).plan));
+        }
+    }
+
+    // A board with no solution is rejected by the repair as by a full solve
+    @Test
+    public void repairsOnlySolvableBoards() throws GameState.UnsolvableError {
+        Random random = new Random(2);
+        int unsolvable = 0;
+        for(int i = 0; i < 200; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 12, 12, 0.5);
+            GameState previous = new GameState(GRID_INFO, board);
+            solve(previous);
+            TileState[][] changed = copy(board);
+            TestBoards.perturb(random, changed);
+            boolean solvable = new SatSolver(new PackedGrid(changed)).solve();
+            try {
+                SolveResult result = repair(new GameState(GRID_INFO, changed), previous);
+                assertTrue(solvable);
+                assertEquals(SolveResult.Status.SOLVED, result.status);
+                assertTrue(TestBoards.isSolvedBy(changed, result.plan));
+            } catch (GameState.UnsolvableError e) {
+                assertFalse(solvable);
+                ++unsolvable;
+                try {
+                    solve(new GameState(GRID_INFO, changed));
+                    fail();
+                } catch (GameState.UnsolvableError expected) {
+                }
+            }
+        }
+        assertTrue(unsolvable > 0 && unsolvable < 200);
+    }
+
+    // An end read as empty can't be solved around, which the repair finds by validating the
+    // board before searching any window, so the token is never polled
+    @Test
+    public void repairRejectsInvalidBoards() throws GameState.UnsolvableError {
+        Random random = new Random(6);
+        CancellationToken cancellationToken = new CancellationToken() {
+            @Override
+            public boolean isCancelled() {
+                throw new AssertionError("searched an invalid board");
+            }
+        };
+        int rejected = 0;
+        for(int i = 0; i < 20; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 12, 12, 0.5);
+            int col = 1 + random.nextInt(10);
+            int row = 1 + random.nextInt(10);
+            if(board[col][row].type != TileType.END) {
+                continue;
+            }
+            GameState previous = new GameState(GRID_INFO, board);
+            solve(previous);
+            TileState[][] changed = copy(board);
+            changed[col][row] = TileState.EMPTY;
+            GameState current = new GameState(GRID_INFO, changed);
+            try {
+                current.getSolution(previous, current.getChangedCells(previous), SolverEngines.BACKTRACKING, cancellationToken);
+                fail();
+            } catch (GameState.InvalidBoardError e) {
+                assertTrue(e.suspiciousCells.length > 0);
+            }
+            ++rejected;
+        }
+        assertTrue(rejected > 0);
+    }
+
+    // A misread tile is put right by its other candidate rather than searched around as read
+    @Test
+    public void repairTriesOtherCandidates() throws GameState.UnsolvableError {
+        Random random = new Random(7);
+        for(int i = 0; i < 20; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 12, 12, 0.5);
+            GameState previous = new GameState(GRID_INFO, board);
+            solve(previous);
+            int col = random.nextInt(12);
+            int row = random.nextInt(12);
+            TileCandidate[][][] candidates = TestBoards.getCandidates(board);
+            candidates[col][row] = new TileCandidate[] {
+                    TestBoards.getCandidate(TestBoards.misread(random, board, col, row), 0.8),
+                    TestBoards.getCandidate(board[col][row], 0.7)};
+            GameState current = new GameState(GRID_INFO, candidates);
+            SolveResult result = repair(current, previous);
+            assertEquals(SolveResult.Status.SOLVED, result.status);
+            assertTrue(TestBoards.isSolvedBy(board, result.plan));
+        }
+    }
+
+    // Turning tiles doesn't change the solution, only the taps it takes to get there
+    @Test
+    public void reusesSolutionWhenOnlyOrientationsChange() throws GameState.UnsolvableError {
+        Random random = new Random(3);
+        for(int i = 0; i < 50; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 12, 12, 0.6);
+            GameState previous = new GameState(GRID_INFO, board);
+            TileState[][] previousSolution = TestBoards.tap(board, solve(previous).plan);
+            TileState[][] turned = copy(board);
+            for(int turns = 0; turns < 5; ++turns) {
+                int col = random.nextInt(turned.length);
+                int row = random.nextInt(turned[col].length);
+                turned[col][row] = TestBoards.createTile(random, turned[col][row].type);
+            }
+            SolveResult result = repair(new GameState(GRID_INFO, turned), previous);
+            assertEquals(SolveResult.Status.SOLVED, result.status);
+            assertEquals(0, countDifferences(previousSolution, TestBoards.tap(turned, result.plan)));
+        }
+    }
+
+    @Test
+    public void comparesOnlyBoardsOfTheSameSize() {
+        Random random = new Random(4);
+        GameState a = new GameState(GRID_INFO, TestBoards.createSolvable(random, 5, 6, 0.5));
+        GameState b = new GameState(GRID_INFO, TestBoards.createSolvable(random, 6, 5, 0.5));
+        assertNull(a.getChangedCells(b));
+        assertEquals(0, a.getChangedCells(a).length);
+    }
+
+    @Test
+    public void isCompleteOnlyOnceSolved() throws GameState.UnsolvableError {
+        Random random = new Random(5);
+        for(int i = 0; i < 50; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 8, 8, 0.6);
+            TileState[][] solved = TestBoards.tap(board, solve(new GameState(GRID_INFO, board)).plan);
+            assertTrue(new GameState(GRID_INFO, solved).isComplete());
+            // a quarter turn of any tile but an empty tile or a cross breaks a connection
+            for(int col = 0; col < solved.length; ++col) {
+                for(int row = 0; row < solved[col].length; ++row) {
+                    TileType type = solved[col][row].type;
+                    if(type != TileType.EMPTY && type != TileType.CROSS) {
+                        TileState[][] turned = copy(solved);
+                        turned[col][row] = new TileState();
+                        turned[col][row].type = type;
+                        turned[col][row].orientation = TileOrientation.fromValue((solved[col][row].orientation.getValue() + 1) & 3);
+                        assertFalse(new GameState(GRID_INFO, turned).isComplete());
+                    }
+                }
+            }
+        }
+    }
+
+    // The first plan streamed turns the tiles propagation fixes before any search, the second
+    // the rest, so together they add up to the plan of the result. With a single solution that is
+    // also the plan of a solve which doesn't stream.
+    @Test
+    public void streamsCertainTapsFirst() throws GameState.UnsolvableError {
+        Random random = new Random(8);
+        int streamed = 0;
+        int unique = 0;
+        for(int i = 0; i < 100; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 12, 12, 0.5);
+            Queue<ClickPlan> taps = new ArrayDeque<>();
+            SolveResult result = new GameState(GRID_INFO, board).getSolution(
+                    SolverEngines.BACKTRACKING,
+                    new CancellationToken(),
+                    taps);
+            assertEquals(SolveResult.Status.SOLVED, result.status);
+            assertTrue(TestBoards.isSolvedBy(board, result.plan));
+            assertEquals(2, taps.size());
+            assertArrayEquals(getSolvedTaps(propagate(board)), getTaps(board, Arrays.asList(taps.peek())));
+            assertArrayEquals(getTaps(board, Arrays.asList(result.plan)), getTaps(board, taps));
+            streamed += taps.peek().size();
+            if(TestBoards.countSolutions(new PackedGrid(board)) == 1) {
+                assertArrayEquals(getTaps(board, Arrays.asList(solve(new GameState(GRID_INFO, board)).plan)), getTaps(board, taps));
+                ++unique;
+            }
+        }
+        assertTrue(streamed > 0 && unique > 0);
+    }
+
+    // Tiles away from a misread tile are streamed before the search finds which candidate it is
+    @Test
+    public void streamsCertainTapsAroundMisreadTiles() throws GameState.UnsolvableError {
+        Random random = new Random(9);
+        int streamed = 0;
+        for(int i = 0; i < 100; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 12, 12, 0.5);
+            if(!new GameState(GRID_INFO, board).hasUniqueSolution()) {
+                continue;
+            }
+            int col = random.nextInt(12);
+            int row = random.nextInt(12);
+            TileCandidate[][][] candidates = TestBoards.getCandidates(board);
+            candidates[col][row] = new TileCandidate[] {
+                    TestBoards.getCandidate(TestBoards.misread(random, board, col, row), 0.8),
+                    TestBoards.getCandidate(board[col][row], 0.7)};
+            Queue<ClickPlan> taps = new ArrayDeque<>();
+            SolveResult result = new GameState(GRID_INFO, candidates).getSolution(
+                    SolverEngines.BACKTRACKING,
+                    new CancellationToken(),
+                    taps);
+            assertEquals(SolveResult.Status.SOLVED, result.status);
+            assertEquals(2, taps.size());
+            ClickPlan first = taps.peek();
+            for(int step = 0; step < first.size(); ++step) {
+                assertFalse(first.getCol(step) == col && first.getRow(step) == row);
+            }
+            streamed += first.size();
+            int[] expected = getTaps(board, Arrays.asList(solve(new GameState(GRID_INFO, board)).plan));
+            assertArrayEquals(expected, getTaps(board, taps));
+        }
+        assertTrue(streamed > 0);
+    }
+}
@@ -0,0 +1,130 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class InferenceTest {
+    // Fails the test as soon as any tile's domain is set to more than it already was
+    private static class NarrowingGrid extends PackedGrid {
+        NarrowingGrid(TileState[][] board) {
+            super(board);
+        }
+
+        @Override
+        public void setDomain(int index, int domain) {
+            assertEquals(0, domain & ~getDomain(index));
+            super.setDomain(index, domain);
+        }
+    }
+
+    private static TileState[][] createBoard(TileType[][] types) {
+        TileState[][] board = new TileState[types[0].length][types.length];
+        for(int row = 0; row < types.length; ++row) {
+            for(int col = 0; col < types[row].length; ++col) {
+                board[col][row] = new TileState();
+                board[col][row].type = types[row][col];
+            }
+        }
+        return board;
+    }
+
+    // Whether every tile keeps only orientations its neighbours allow, and is solved exactly
+    // when a single one is left
+    private static boolean isArcConsistent(PackedGrid grid) {
+        for(int index = 0; index < grid.size(); ++index) {
+            int domain = grid.getDomain(index);
+            if(grid.getSupportedOrientations(index) != domain
+                    || grid.isSolved(index) != (Integer.bitCount(domain) == 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Narrowing the other tiles of the block at the top left propagates into the line, solving it,
+    // while the block's support, worked out before, still allows both of its orientations
+    @Test
+    public void blockNarrowsOnlyWhatIsLeft() {
+        PackedGrid grid = new NarrowingGrid(createBoard(new TileType[][] {
+                {TileType.END, TileType.END, TileType.END, TileType.EMPTY},
+                {TileType.END, TileType.LINE, TileType.TEE, TileType.END},
+                {TileType.END, TileType.END, TileType.END, TileType.END},
+        }));
+        Inference inference = new Inference(grid, EnumSet.of(Inference.Rule.BLOCK_2X2), new Inference.Counters());
+        assertEquals(new SatSolver(new PackedGrid(grid)).solve(), inference.apply());
+        assertTrue(isArcConsistent(grid));
+    }
+
+    // Every non-empty combination of rules
+    private static Set<Inference.Rule> getRules(int combination) {
+        Set<Inference.Rule> rules = EnumSet.noneOf(Inference.Rule.class);
+        for(Inference.Rule rule : Inference.Rule.values()) {
+            if((combination & (1 << rule.ordinal())) != 0) {
+                rules.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    // Boards big enough for a few blocks to overlap each other, which is what it takes for
+    // narrowing one block to reach into a block narrowed before
+    @Test
+    public void onlyEverNarrowsDomains() {
+        Random random = new Random(1);
+        for(int combination = 1; combination < 1 << Inference.Rule.values().length; ++combination) {
+            for(int i = 0; i < 2000; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, 4 + random.nextInt(6), 4 + random.nextInt(8), 0.3 + 0.6 * random.nextDouble());
+                if(random.nextBoolean()) {
+                    TestBoards.perturb(random, board);
+                }
+                PackedGrid grid = new NarrowingGrid(board);
+                if(new Inference(grid, getRules(combination), new Inference.Counters()).apply()) {
+                    assertTrue(isArcConsistent(grid));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keepsEverySolution() {
+        Random random = new Random(2);
+        for(int combination = 1; combination < 1 << Inference.Rule.values().length; ++combination) {
+            for(int i = 0; i < 300; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, 2 + random.nextInt(3), 2 + random.nextInt(3), 0.3 + 0.6 * random.nextDouble());
+                if(random.nextBoolean()) {
+                    TestBoards.perturb(random, board);
+                }
+                PackedGrid grid = new PackedGrid(board);
+                long solutions = TestBoards.countSolutions(grid);
+                if(new Inference(grid, getRules(combination), new Inference.Counters()).apply()) {
+                    assertEquals(solutions, TestBoards.countSolutions(grid));
+                } else {
+                    assertEquals(0, solutions);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void countsWhatEachRuleEliminates() {
+        Random random = new Random(3);
+        Inference.Counters counters = new Inference.Counters();
+        Inference.Counters defaults = new Inference.Counters();
+        for(int i = 0; i < 100; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 12, 12, 0.5);
+            assertTrue(new Inference(new PackedGrid(board), EnumSet.allOf(Inference.Rule.class), counters).apply());
+            assertTrue(new Inference(new PackedGrid(board), Inference.DEFAULT_RULES, defaults).apply());
+        }
+        for(Inference.Rule rule : Inference.Rule.values()) {
+            assertTrue(counters.getEliminated(rule) > 0);
+            assertTrue(counters.getNanos(rule) > 0);
+            assertEquals(0, defaults.getEliminated(rule));
+            assertEquals(0, defaults.getNanos(rule));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelSearchTest {
+    // Splitting at no level at all, at a few and below the bottom of the search tree
+    private static final int[] SPLIT_DEPTHS = {0, 1, 3, 64};
+
+    @Test
+    public void agreesWithBruteForce() {
+        Random random = new Random(1);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for(int i = 0; i < 200; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, 2 + random.nextInt(3), 2 + random.nextInt(3), 0.6);
+                if(random.nextBoolean()) {
+                    TestBoards.perturb(random, board);
+                }
+                boolean solvable = TestBoards.countSolutions(new PackedGrid(board)) > 0;
+                for(int splitDepth : SPLIT_DEPTHS) {
+                    PackedGrid grid = new PackedGrid(board);
+                    int[] domains = TestBoards.getDomains(grid);
+                    assertEquals(solvable, new ParallelSearch(
+                            grid,
+                            VariableOrdering.MINIMUM_REMAINING_VALUES,
+                            ValueOrdering.FEWEST_TAPS,
+                            splitDepth).solve(pool));
+                    if(solvable) {
+                        assertTrue(TestBoards.isSolved(grid));
+                    } else {
+                        assertArrayEquals(domains, TestBoards.getDomains(grid));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Boards too big to brute force, checked against the sequential search
+    @Test
+    public void agreesWithSequentialSearch() {
+        Random random = new Random(2);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for(int i = 0; i < 60; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, 30, 30, 0.5);
+                if(random.nextBoolean()) {
+                    TestBoards.perturb(random, board);
+                }
+                boolean solvable = new BacktrackingSearch(
+                        new PackedGrid(board),
+                        VariableOrdering.MINIMUM_REMAINING_VALUES,
+                        ValueOrdering.FEWEST_TAPS).solve();
+                PackedGrid grid = new PackedGrid(board);
+                int[] domains = TestBoards.getDomains(grid);
+                assertEquals(solvable, new ParallelSearch(
+                        grid,
+                        VariableOrdering.MINIMUM_REMAINING_VALUES,
+                        ValueOrdering.FEWEST_TAPS,
+                        ParallelSearch.getDefaultSplitDepth(pool)).solve(pool));
+                if(solvable) {
+                    assertTrue(TestBoards.isSolved(grid));
+                } else {
+                    assertArrayEquals(domains, TestBoards.getDomains(grid));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class PortfolioSolverTest {
+    @Test
+    public void agreesWithBruteForce() {
+        Random random = new Random(1);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for(int i = 0; i < 200; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, 2 + random.nextInt(3), 2 + random.nextInt(3), 0.6);
+                if(random.nextBoolean()) {
+                    TestBoards.perturb(random, board);
+                }
+                boolean solvable = TestBoards.countSolutions(new PackedGrid(board)) > 0;
+                for(int runs = 1; runs <= 4; ++runs) {
+                    PackedGrid grid = new PackedGrid(board);
+                    int[] domains = TestBoards.getDomains(grid);
+                    assertEquals(solvable, new PortfolioSolver(
+                            grid,
+                            VariableOrdering.MINIMUM_REMAINING_VALUES,
+                            ValueOrdering.FEWEST_TAPS,
+                            runs).solve(pool));
+                    if(solvable) {
+                        assertTrue(TestBoards.isSolved(grid));
+                    } else {
+                        assertArrayEquals(domains, TestBoards.getDomains(grid));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Big enough for runs to restart many times before one of them finishes
+    @Test
+    public void solvesLargeBoards() {
+        Random random = new Random(2);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for(int i = 0; i < 5; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, 100, 100, 0.5);
+                PackedGrid grid = new PackedGrid(board);
+                assertTrue(new PortfolioSolver(
+                        grid,
+                        VariableOrdering.DEGREE_WEIGHTED,
+                        ValueOrdering.DECLARATION,
+                        pool.getParallelism()).solve(pool));
+                assertTrue(TestBoards.isSolved(grid));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
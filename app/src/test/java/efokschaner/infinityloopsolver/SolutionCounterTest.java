@@ -0,0 +1,75 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SolutionCounterTest {
+    @Test
+    public void agreesWithBruteForce() {
+        Random random = new Random(1);
+        for(int i = 0; i < 300; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 2 + random.nextInt(3), 2 + random.nextInt(3), 0.3 + 0.6 * random.nextDouble());
+            if(random.nextInt(4) == 0) {
+                TestBoards.perturb(random, board);
+            }
+            PackedGrid grid = new PackedGrid(board);
+            int[] domains = TestBoards.getDomains(grid);
+            assertEquals(TestBoards.countSolutions(grid), new SolutionCounter(grid).count(Long.MAX_VALUE));
+            assertArrayEquals(domains, TestBoards.getDomains(grid));
+        }
+    }
+
+    @Test
+    public void stopsAtTheLimit() {
+        Random random = new Random(2);
+        int limited = 0;
+        for(int i = 0; i < 100; ++i) {
+            PackedGrid grid = new PackedGrid(TestBoards.createSolvable(random, 5, 5, 0.3 + 0.6 * random.nextDouble()));
+            long solutions = TestBoards.countSolutions(grid);
+            SolutionCounter counter = new SolutionCounter(grid);
+            for(long limit = 1; limit <= 4; ++limit) {
+                assertEquals(Math.min(solutions, limit), counter.count(limit));
+            }
+            if(solutions > 4) {
+                ++limited;
+            }
+        }
+        assertTrue(limited > 0);
+    }
+
+    // Two boards side by side with an empty column between them, so neither can connect into the other
+    @Test
+    public void multipliesIndependentRegions() {
+        Random random = new Random(3);
+        for(int i = 0; i < 100; ++i) {
+            TileState[][] left = TestBoards.createSolvable(random, 3, 3, 0.8);
+            TileState[][] right = TestBoards.createSolvable(random, 2, 3, 0.8);
+            TileState[][] board = new TileState[left.length + 1 + right.length][];
+            System.arraycopy(left, 0, board, 0, left.length);
+            board[left.length] = new TileState[] {TileState.EMPTY, TileState.EMPTY, TileState.EMPTY};
+            System.arraycopy(right, 0, board, left.length + 1, right.length);
+            long expected = TestBoards.countSolutions(new PackedGrid(left)) * TestBoards.countSolutions(new PackedGrid(right));
+            assertEquals(expected, new SolutionCounter(new PackedGrid(board)).count(Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void gameStateTellsUniqueSolutions() {
+        Random random = new Random(4);
+        int unique = 0;
+        for(int i = 0; i < 100; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 3, 3, 0.3 + 0.6 * random.nextDouble());
+            long solutions = TestBoards.countSolutions(new PackedGrid(board));
+            GameState gameState = new GameState(new GridInfo(), board);
+            assertEquals(Math.min(solutions, 3), gameState.countSolutions(3));
+            assertEquals(solutions == 1, gameState.hasUniqueSolution());
+            if(solutions == 1) {
+                ++unique;
+            }
+        }
+        assertTrue(unique > 0);
+    }
+}
@@ -0,0 +1,77 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TapOptimizerTest {
+    private static int getTaps(PackedGrid grid) {
+        int taps = 0;
+        for(int index = 0; index < grid.size(); ++index) {
+            taps += grid.getTaps(index);
+        }
+        return taps;
+    }
+
+    @Test
+    public void needsNoMoreTapsThanAnySolution() {
+        Random random = new Random(1);
+        for(int i = 0; i < 300; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 2 + random.nextInt(3), 2 + random.nextInt(3), 0.3 + 0.6 * random.nextDouble());
+            if(random.nextInt(4) == 0) {
+                TestBoards.perturb(random, board);
+            }
+            PackedGrid grid = new PackedGrid(board);
+            int minimum = TestBoards.getMinimumTaps(grid);
+            int[] domains = TestBoards.getDomains(grid);
+            assertEquals(minimum >= 0, new TapOptimizer(grid).solve());
+            if(minimum >= 0) {
+                assertTrue(TestBoards.isSolved(grid));
+                assertEquals(minimum, getTaps(grid));
+            } else {
+                assertArrayEquals(domains, TestBoards.getDomains(grid));
+            }
+        }
+    }
+
+    @Test
+    public void needsNoMoreTapsThanBacktracking() {
+        Random random = new Random(2);
+        long nodes = 0;
+        for(int i = 0; i < 20; ++i) {
+            TileState[][] board = TestBoards.createSolvable(random, 16, 16, 0.5);
+            PackedGrid optimised = new PackedGrid(board);
+            PackedGrid searched = new PackedGrid(board);
+            TapOptimizer optimizer = new TapOptimizer(optimised);
+            assertTrue(optimizer.solve());
+            nodes += optimizer.getNodesExplored();
+            assertTrue(new BacktrackingSearch(searched, VariableOrdering.MINIMUM_REMAINING_VALUES, ValueOrdering.FEWEST_TAPS).solve());
+            assertTrue(TestBoards.isSolved(optimised));
+            assertTrue(getTaps(optimised) <= getTaps(searched));
+        }
+        assertTrue(nodes > 0);
+    }
+
+    // The line is solved upright whichever way it was recognised, which is a single tap away
+    // at most since turning it half way round looks the same
+    @Test
+    public void countsTapsModuloSymmetry() {
+        for(int o = 0; o < 4; ++o) {
+            TileState[][] board = new TileState[1][3];
+            for(int row = 0; row < 3; ++row) {
+                board[0][row] = new TileState();
+            }
+            board[0][0].type = TileType.END;
+            board[0][0].orientation = TileOrientation.HALF;
+            board[0][1].type = TileType.LINE;
+            board[0][1].orientation = TileOrientation.fromValue(o);
+            board[0][2].type = TileType.END;
+            board[0][2].orientation = TileOrientation.ZERO;
+            PackedGrid grid = new PackedGrid(board);
+            assertTrue(new TapOptimizer(grid).solve());
+            assertEquals(o % 2, getTaps(grid));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package efokschaner.infinityloopsolver;
+
+import java.util.Random;
+
+// Random boards for the solver tests, and brute force answers to check the solvers against
+class TestBoards {
+    private static final TileType[] TYPES = TileType.values();
+
+    private TestBoards() {
+    }
+
+    // The connections of a solved board, each edge between two tiles open with probability density
+    static int[][] createConnections(Random random, int cols, int rows, double density) {
+        int[][] connections = new int[cols][rows];
+        for(int col = 0; col < cols; ++col) {
+            for(int row = 0; row < rows; ++row) {
+                if(col + 1 < cols && random.nextDouble() < density) {
+                    connections[col][row] |= Direction.RIGHT;
+                    connections[col + 1][row] |= Direction.LEFT;
+                }
+                if(row + 1 < rows && random.nextDouble() < density) {
+                    connections[col][row] |= Direction.DOWN;
+                    connections[col][row + 1] |= Direction.UP;
+                }
+            }
+        }
+        return connections;
+    }
+
+    // A board whose tiles connect as in connections once solved, each turned at random
+    static TileState[][] createBoard(Random random, int[][] connections) {
+        TileState[][] board = new TileState[connections.length][connections[0].length];
+        for(int col = 0; col < board.length; ++col) {
+            for(int row = 0; row < board[col].length; ++row) {
+                board[col][row] = createTile(random, connections[col][row]);
+            }
+        }
+        return board;
+    }
+
+    static TileState[][] createSolvable(Random random, int cols, int rows, double density) {
+        return createBoard(random, createConnections(random, cols, rows, density));
+    }
+
+    // A tile of the type which connects on exactly the given sides, turned at random
+    static TileState createTile(Random random, int connections) {
+        for(TileType type : TYPES) {
+            for(TileOrientation orientation : type.getPossibleOrientations()) {
+                if(Direction.applyOrientation(orientation, type.getConnectionDirections()) == connections) {
+                    return createTile(random, type);
+                }
+            }
+        }
+        throw new IllegalArgumentException("No tile connects on " + connections);
+    }
+
+    static TileState createTile(Random random, TileType type) {
+        if(type == TileType.EMPTY) {
+            return TileState.EMPTY;
+        }
+        TileOrientation[] orientations = type.getPossibleOrientations();
+        TileState tile = new TileState();
+        tile.type = type;
+        tile.orientation = orientations[random.nextInt(orientations.length)];
+        return tile;
+    }
+
+    // Replaces a random tile with one of a random type, which often leaves the board without a solution
+    static void perturb(Random random, TileState[][] board) {
+        int col = random.nextInt(board.length);
+        int row = random.nextInt(board[0].length);
+        board[col][row] = createTile(random, TYPES[1 + random.nextInt(TYPES.length - 1)]);
+    }
+
+    // Whether every tile is solved and connects exactly where its neighbours connect to it,
+    // with nothing connecting off the board
+    static boolean isSolved(PackedGrid grid) {
+        for(int index = 0; index < grid.size(); ++index) {
+            if(!grid.isSolved(index) || !fitsSolvedNeighbours(grid, index, grid.size())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether tapping the tiles of board as plan says leaves it solved
+    static boolean isSolvedBy(TileState[][] board, ClickPlan plan) {
+        return isSolved(new PackedGrid(tap(board, plan)));
+    }
+
+    // The board after tapping its tiles as plan says, with every orientation marked solved
+    static TileState[][] tap(TileState[][] board, ClickPlan plan) {
+        int[][] orientations = new int[board.length][board[0].length];
+        for(int col = 0; col < board.length; ++col) {
+            for(int row = 0; row < board[col].length; ++row) {
+                orientations[col][row] = board[col][row].orientation.getValue();
+            }
+        }
+        for(int step = 0; step < plan.size(); ++step) {
+            int col = plan.getCol(step);
+            int row = plan.getRow(step);
+            orientations[col][row] = (orientations[col][row] + plan.getTaps(step)) & 3;
+        }
+        TileState[][] tapped = new TileState[board.length][board[0].length];
+        for(int col = 0; col < board.length; ++col) {
+            for(int row = 0; row < board[col].length; ++row) {
+                tapped[col][row] = new TileState(true);
+                tapped[col][row].type = board[col][row].type;
+                tapped[col][row].orientation = TileOrientation.fromValue(orientations[col][row]);
+            }
+        }
+        return tapped;
+    }
+
+    static int[] getDomains(PackedGrid grid) {
+        int[] domains = new int[grid.size()];
+        for(int index = 0; index < grid.size(); ++index) {
+            domains[index] = grid.getDomain(index);
+        }
+        return domains;
+    }
+
+    // Number of solutions, by trying every orientation left for each tile in index order
+    static long countSolutions(PackedGrid grid) {
+        return countSolutions(new PackedGrid(grid), 0);
+    }
+
+    private static long countSolutions(PackedGrid grid, int index) {
+        if(index == grid.size()) {
+            return 1;
+        }
+        int domain = grid.getDomain(index);
+        long count = 0;
+        for(int o = 0; o < 4; ++o) {
+            if((domain & (1 << o)) == 0) {
+                continue;
+            }
+            int mark = grid.getTrailSize();
+            grid.setDomain(index, 1 << o);
+            if(fitsSolvedNeighbours(grid, index, index)) {
+                count += countSolutions(grid, index + 1);
+            }
+            grid.undo(mark);
+        }
+        return count;
+    }
+
+    // Fewest taps of any solution, counting the taps each tile needs from its initial orientation,
+    // or -1 without a solution
+    static int getMinimumTaps(PackedGrid grid) {
+        return getMinimumTaps(new PackedGrid(grid), 0, 0);
+    }
+
+    private static int getMinimumTaps(PackedGrid grid, int index, int taps) {
+        if(index == grid.size()) {
+            return taps;
+        }
+        int domain = grid.getDomain(index);
+        int minimum = -1;
+        for(int o = 0; o < 4; ++o) {
+            if((domain & (1 << o)) == 0) {
+                continue;
+            }
+            int mark = grid.getTrailSize();
+            grid.setDomain(index, 1 << o);
+            if(fitsSolvedNeighbours(grid, index, index)) {
+                int found = getMinimumTaps(grid, index + 1, taps + grid.getTaps(index));
+                if(found >= 0 && (minimum < 0 || found < minimum)) {
+                    minimum = found;
+                }
+            }
+            grid.undo(mark);
+        }
+        return minimum;
+    }
+
+    // Whether the solved tile at index agrees with the board's edge and with its neighbours
+    // before limit in index order
+    private static boolean fitsSolvedNeighbours(PackedGrid grid, int index, int limit) {
+        for(int direction : Direction.ALL) {
+            int n = grid.neighbour(index, direction);
+            boolean connects = (grid.getConnections(index) & direction) != 0;
+            if(n < 0) {
+                if(connects) {
+                    return false;
+                }
+            } else if(n < limit && grid.isSolved(n)
+                    && connects != ((grid.getConnections(n) & Direction.opposite(direction)) != 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static TileCandidate getCandidate(TileState tile, double certainty) {
+        return new TileCandidate(tile.type, tile.orientation, certainty);
+    }
+
+    // By column then row, each tile of board the only candidate recognised for it
+    static TileCandidate[][][] getCandidates(TileState[][] board) {
+        TileCandidate[][][] candidates = new TileCandidate[board.length][][];
+        for(int col = 0; col < board.length; ++col) {
+            candidates[col] = new TileCandidate[board[col].length][];
+            for(int row = 0; row < board[col].length; ++row) {
+                candidates[col][row] = new TileCandidate[] {getCandidate(board[col][row], 1)};
+            }
+        }
+        return candidates;
+    }
+
+    // A tile of another type, with which board has no solution
+    static TileState misread(Random random, TileState[][] board, int col, int row) {
+        TileState tile = board[col][row];
+        while(true) {
+            board[col][row] = createTile(random, TYPES[random.nextInt(TYPES.length)]);
+            boolean solvable = board[col][row].type != tile.type && new SatSolver(new PackedGrid(board)).solve();
+            TileState misread = board[col][row];
+            board[col][row] = tile;
+            if(misread.type != tile.type && !solvable) {
+                return misread;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package efokschaner.infinityloopsolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TranspositionTableTest {
+    @Test
+    public void containsOnlyTheLatestKeyOfASlot() {
+        TranspositionTable table = new TranspositionTable(8);
+        long a = TranspositionTable.mix(1);
+        long b = TranspositionTable.mix(2);
+        assertFalse(table.contains(a));
+        table.add(a);
+        assertTrue(table.contains(a));
+        table.add(b);
+        assertTrue(table.contains(b));
+        assertFalse(table.contains(a));
+        table.add(0);
+        assertTrue(table.contains(0));
+    }
+
+    @Test
+    public void containsAddedKeys() {
+        TranspositionTable table = new TranspositionTable(TranspositionTable.DEFAULT_MEMORY_BYTES);
+        for(long value = 0; value < 1000; ++value) {
+            long key = TranspositionTable.mix(value);
+            table.add(key);
+            assertTrue(table.contains(key));
+        }
+        for(long value = 1000; value < 2000; ++value) {
+            assertFalse(table.contains(TranspositionTable.mix(value)));
+        }
+    }
+
+    // Searches of one board with different orderings skip the regions each other found dead,
+    // which must not change the answer, even when the table is too small to keep them
+    @Test
+    public void sharedTableAgreesWithSatSolver() {
+        Random random = new Random(1);
+        long hits = 0;
+        for(long memoryBytes : new long[] {8, TranspositionTable.DEFAULT_MEMORY_BYTES}) {
+            for(int i = 0; i < 60; ++i) {
+                TileState[][] board = TestBoards.createSolvable(random, 30, 30, 0.5);
+                TestBoards.perturb(random, board);
+                boolean solvable = new SatSolver(new PackedGrid(board)).solve();
+                TranspositionTable table = new TranspositionTable(memoryBytes);
+                for(VariableOrdering variableOrdering : VariableOrdering.values()) {
+                    PackedGrid grid = new PackedGrid(board);
+                    BacktrackingSearch search = new BacktrackingSearch(grid, variableOrdering, ValueOrdering.DECLARATION);
+                    search.setTranspositionTable(table);
+                    assertEquals(solvable, search.solve());
+                    if(solvable) {
+                        assertTrue(TestBoards.isSolved(grid));
+                    }
+                    hits += search.getTranspositionHits();
+                }
+            }
+        }
+        assertTrue(hits > 0);
+    }
+}